@@ -37,7 +37,7 @@ dependencies {
     testRuntime("org.junit.jupiter:junit-jupiter-engine:5.4.0")
 
     // RocksDB
-    compile("org.rocksdb:rocksdbjni:6.2.2")
+    compile("org.rocksdb:rocksdbjni:6.20.3")
 }
 
 val run by tasks.getting(JavaExec::class) {
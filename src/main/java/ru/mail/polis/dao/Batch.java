@@ -0,0 +1,109 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Ordered set of upserts and removals to be applied to {@link DAO} at once.
+ */
+public final class Batch implements Iterable<Batch.Entry> {
+    private final List<Entry> entries = new ArrayList<>();
+    private final long timestamp;
+
+    /**
+     * Creates empty batch, which changes are timestamped by the storage.
+     */
+    public Batch() {
+        this(Value.NO_TIMESTAMP);
+    }
+
+    /**
+     * Creates empty batch, which changes are all written with the given timestamp.
+     */
+    public Batch(final long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Adds upsert of value by given key.
+     */
+    @NotNull
+    public Batch upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        entries.add(new Entry(key, value));
+        return this;
+    }
+
+    /**
+     * Adds removal of value by given key.
+     */
+    @NotNull
+    public Batch remove(@NotNull final ByteBuffer key) {
+        entries.add(new Entry(key, null));
+        return this;
+    }
+
+    /**
+     * Provides write timestamp of the changes or {@link Value#NO_TIMESTAMP} if the storage picks it.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Entry> iterator() {
+        return entries.iterator();
+    }
+
+    /**
+     * Single change of the batch.
+     */
+    public static final class Entry {
+        private final ByteBuffer key;
+        private final ByteBuffer value;
+
+        private Entry(
+                @NotNull final ByteBuffer key,
+                @Nullable final ByteBuffer value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @NotNull
+        public ByteBuffer getKey() {
+            return key.asReadOnlyBuffer();
+        }
+
+        /**
+         * Provides upserted value.
+         *
+         * @throws IllegalStateException if the entry is a removal
+         */
+        @NotNull
+        public ByteBuffer getValue() {
+            if (value == null) {
+                throw new IllegalStateException("Removal has no value");
+            }
+            return value.asReadOnlyBuffer();
+        }
+
+        public boolean isRemoval() {
+            return value == null;
+        }
+    }
+}
@@ -2,26 +2,28 @@ package ru.mail.polis.dao;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public final class ByteBufferUtils {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long SIGN_BITS = 0x8080808080808080L;
+
     private ByteBufferUtils() {
     }
 
     /**
-     * Method shifts byte array then wrap it to the byte buffer.
+     * Method shifts byte array in place then wrap it to the byte buffer.
+     * N.B. The array must not be used by the caller afterwards.
      *
      * @param byteArray array to shift
      * @return shifted array wrapped into buffer
      */
     public static ByteBuffer shiftByteArray(@NotNull final byte[] byteArray) {
-        final byte[] body = byteArray.clone();
-
-        for (int i = 0; i < body.length; i++) {
-            body[i] += Byte.MIN_VALUE;
-        }
-
-        return ByteBuffer.wrap(body);
+        flipSignBits(byteArray);
+        return ByteBuffer.wrap(byteArray);
     }
 
     /**
@@ -32,11 +34,29 @@ public final class ByteBufferUtils {
      */
     public static byte[] restoreByteArray(@NotNull final ByteBuffer buffer) {
         final byte[] body = getByteArray(buffer);
+        flipSignBits(body);
+        return body;
+    }
+
+    /**
+     * Method writes restored bytes of the buffer into the target one.
+     *
+     * @param buffer modified array wrapped into buffer
+     * @param target buffer to put restored bytes to starting from its position
+     */
+    public static void restoreInto(@NotNull final ByteBuffer buffer, @NotNull final ByteBuffer target) {
+        final int start = target.position();
+        target.put(buffer.duplicate());
+        final int end = target.position();
+        final int words = end - (end - start) % Long.BYTES;
 
-        for (int i = 0; i < body.length; i++) {
-            body[i] -= Byte.MIN_VALUE;
+        for (int i = start; i < words; i += Long.BYTES) {
+            target.putLong(i, target.getLong(i) ^ SIGN_BITS);
+        }
+
+        for (int i = words; i < end; i++) {
+            target.put(i, (byte) (target.get(i) ^ Byte.MIN_VALUE));
         }
-        return body;
     }
 
     /**
@@ -53,4 +73,20 @@ public final class ByteBufferUtils {
 
         return body;
     }
+
+    /**
+     * Converts between signed order of {@link ByteBuffer#compareTo} and unsigned order of RocksDB
+     * flipping the sign bit of each byte, eight bytes at a time.
+     */
+    private static void flipSignBits(@NotNull final byte[] body) {
+        final int words = body.length - body.length % Long.BYTES;
+
+        for (int i = 0; i < words; i += Long.BYTES) {
+            LONGS.set(body, i, (long) LONGS.get(body, i) ^ SIGN_BITS);
+        }
+
+        for (int i = words; i < body.length; i++) {
+            body[i] ^= Byte.MIN_VALUE;
+        }
+    }
 }
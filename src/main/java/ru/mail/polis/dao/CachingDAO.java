@@ -0,0 +1,227 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage serving the point reads of the hot keys from {@link OffHeapCache}.
+ *
+ * <p>Both found and missing keys are cached, so are the removed ones. Writes go through to the storage
+ * and invalidate the keys afterwards. Scans and snapshots aren't cached and go straight to the storage.
+ */
+final class CachingDAO implements DAO {
+    private final DAO dao;
+    private final OffHeapCache cache;
+
+    /**
+     * Wraps the storage.
+     *
+     * @param dao      storage to cache the values of
+     * @param maxBytes direct memory to keep the values in
+     */
+    CachingDAO(
+            @NotNull final DAO dao,
+            final long maxBytes) {
+        this.dao = dao;
+        this.cache = new OffHeapCache(maxBytes);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return dao.iterator(from);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return dao.range(from, to);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> parallelRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return dao.parallelRange(from, to);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> descendingRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return dao.descendingRange(from, to);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> keyRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final boolean descending) throws IOException {
+        return dao.keyRange(from, to, descending);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> writtenKeys() throws IOException {
+        return dao.writtenKeys();
+    }
+
+    @Override
+    public long snapshot() throws IOException {
+        return dao.snapshot();
+    }
+
+    @NotNull
+    @Override
+    public DAO at(final long snapshot) throws IOException {
+        return dao.at(snapshot);
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException {
+        final ByteBuffer value = getIfPresent(key);
+        if (value == null) {
+            throw new NoSuchElementExceptionLite(RocksDAO.NOT_FOUND);
+        }
+        return value;
+    }
+
+    @NotNull
+    @Override
+    public Value getTimestamped(@NotNull final ByteBuffer key) throws IOException {
+        final Value cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long version = cache.version(key);
+        final Value value = dao.getTimestamped(key);
+        cache.put(key, value, version);
+        return value;
+    }
+
+    @Nullable
+    @Override
+    public Value getCached(@NotNull final ByteBuffer key) throws IOException {
+        final Value cached = cache.probe(key);
+        return cached == null ? dao.getCached(key) : cached;
+    }
+
+    @NotNull
+    @Override
+    public List<Value> getAll(@NotNull final List<ByteBuffer> keys) throws IOException {
+        final List<Value> values = new ArrayList<>(keys.size());
+        final List<ByteBuffer> missed = new ArrayList<>();
+        final List<Long> versions = new ArrayList<>();
+        for (final ByteBuffer key : keys) {
+            final Value cached = cache.get(key);
+            values.add(cached);
+            if (cached == null) {
+                missed.add(key);
+                versions.add(cache.version(key));
+            }
+        }
+
+        if (missed.isEmpty()) {
+            return values;
+        }
+
+        final List<Value> read = dao.getAll(missed);
+        int next = 0;
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) == null) {
+                final Value value = read.get(next);
+                cache.put(missed.get(next), value, versions.get(next));
+                values.set(i, value);
+                next++;
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        try {
+            dao.upsert(key, value);
+        } finally {
+            cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long timestamp) throws IOException {
+        try {
+            dao.upsert(key, value, timestamp);
+        } finally {
+            cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        try {
+            dao.remove(key);
+        } finally {
+            cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public void remove(
+            @NotNull final ByteBuffer key,
+            final long timestamp) throws IOException {
+        try {
+            dao.remove(key, timestamp);
+        } finally {
+            cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public void upsertAll(@NotNull final Batch batch) throws IOException {
+        try {
+            dao.upsertAll(batch);
+        } finally {
+            for (final Batch.Entry entry : batch) {
+                cache.invalidate(entry.getKey());
+            }
+        }
+    }
+
+    @Override
+    public void compact() throws IOException {
+        dao.compact();
+    }
+
+    @NotNull
+    @Override
+    public String stats() {
+        return dao.stats() + cache.stats();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            dao.close();
+        } finally {
+            cache.close();
+        }
+    }
+}
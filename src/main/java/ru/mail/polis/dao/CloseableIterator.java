@@ -0,0 +1,12 @@
+package ru.mail.polis.dao;
+
+import java.util.Iterator;
+
+/**
+ * Iterator holding resources, which must be released once the iteration is over.
+ * Closing is idempotent.
+ */
+public interface CloseableIterator<E> extends Iterator<E>, AutoCloseable {
+    @Override
+    void close();
+}
@@ -23,7 +23,9 @@ import ru.mail.polis.Record;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -39,18 +41,20 @@ public interface DAO extends Closeable {
      * in <b>ascending</b> order according to {@link Record#compareTo(Record)}.
      * N.B. The iterator should be obtained as fast as possible, e.g.
      * one should not "seek" to start point ("from" element) in linear time ;)
+     * The iterator must be closed once it is not needed anymore.
      */
     @NotNull
-    Iterator<Record> iterator(@NotNull ByteBuffer from) throws IOException;
+    CloseableIterator<Record> iterator(@NotNull ByteBuffer from) throws IOException;
 
     /**
      * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive)
      * until given "to" key (exclusive) in <b>ascending</b> order according to {@link Record#compareTo(Record)}.
      * N.B. The iterator should be obtained as fast as possible, e.g.
      * one should not "seek" to start point ("from" element) in linear time ;)
+     * The iterator must be closed once it is not needed anymore.
      */
     @NotNull
-    default Iterator<Record> range(
+    default CloseableIterator<Record> range(
             @NotNull ByteBuffer from,
             @Nullable ByteBuffer to) throws IOException {
         if (to == null) {
@@ -65,6 +69,84 @@ public interface DAO extends Closeable {
         return Iters.until(iterator(from), bound);
     }
 
+    /**
+     * Provides the same records as {@link #range(ByteBuffer, ByteBuffer)}, but may read them ahead of the consumer
+     * in parallel. Suits the scans which are going to read the whole range.
+     * The iterator must be closed once it is not needed anymore.
+     */
+    @NotNull
+    default CloseableIterator<Record> parallelRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        return range(from, to);
+    }
+
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s from "from" key (inclusive)
+     * until given "to" key (exclusive) in <b>descending</b> order, i.e. starting right before "to"
+     * or at the last key if "to" is {@code null}.
+     * The iterator must be closed once it is not needed anymore.
+     */
+    @NotNull
+    default CloseableIterator<Record> descendingRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        final List<Record> records = new ArrayList<>();
+        try (CloseableIterator<Record> range = range(from, to)) {
+            range.forEachRemaining(records::add);
+        }
+        Collections.reverse(records);
+        return Iters.closeable(records.iterator());
+    }
+
+    /**
+     * Pins the current state of the storage for the reads of later requests.
+     * The snapshot lives while it is used and is released some time after the last use.
+     *
+     * @return token to read the snapshot by with {@link #at(long)}
+     */
+    default long snapshot() throws IOException {
+        throw new UnsupportedOperationException("Snapshots are not supported");
+    }
+
+    /**
+     * Provides read only view of the storage pinned by {@link #snapshot()}.
+     *
+     * @throws NoSuchElementException if the snapshot is unknown or has already been released
+     */
+    @NotNull
+    default DAO at(long snapshot) throws IOException {
+        throw new UnsupportedOperationException("Snapshots are not supported");
+    }
+
+    /**
+     * Provides iterator (possibly empty) over the keys of {@link Record}s from "from" key (inclusive)
+     * until given "to" key (exclusive) in ascending or descending order like {@link #range(ByteBuffer, ByteBuffer)}
+     * and {@link #descendingRange(ByteBuffer, ByteBuffer)} do.
+     * The records come with empty values, which implementations are free not to read at all.
+     * The iterator must be closed once it is not needed anymore.
+     */
+    @NotNull
+    default CloseableIterator<Record> keyRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to,
+            boolean descending) throws IOException {
+        final CloseableIterator<Record> records = descending ? descendingRange(from, to) : range(from, to);
+        final ByteBuffer empty = ByteBuffer.allocate(0);
+        return Iters.transform(records, record -> Record.of(record.getKey(), empty));
+    }
+
+    /**
+     * Provides iterator over the keys of all the written {@link Record}s in ascending order like
+     * {@link #keyRange(ByteBuffer, ByteBuffer, boolean)} does, but including the removed ones,
+     * which storages without tombstones don't keep.
+     * The iterator must be closed once it is not needed anymore.
+     */
+    @NotNull
+    default CloseableIterator<Record> writtenKeys() throws IOException {
+        return keyRange(ByteBuffer.allocate(0), null, false);
+    }
+
     /**
      * Obtains {@link Record} corresponding to given key.
      *
@@ -72,19 +154,66 @@ public interface DAO extends Closeable {
      */
     @NotNull
     default ByteBuffer get(@NotNull ByteBuffer key) throws IOException, NoSuchElementException {
-        final Iterator<Record> iter = iterator(key);
-        if (!iter.hasNext()) {
-            throw new NoSuchElementException("Not found");
+        try (CloseableIterator<Record> iter = iterator(key)) {
+            if (!iter.hasNext()) {
+                throw new NoSuchElementException("Not found");
+            }
+
+            final Record next = iter.next();
+            if (next.getKey().equals(key)) {
+                return next.getValue();
+            } else {
+                throw new NoSuchElementException("Not found");
+            }
         }
+    }
 
-        final Record next = iter.next();
-        if (next.getKey().equals(key)) {
-            return next.getValue();
-        } else {
-            throw new NoSuchElementException("Not found");
+    /**
+     * Obtains the value corresponding to given key like {@link #get(ByteBuffer)} does, but reports the missing
+     * (or removed) key with {@code null} instead of the exception, which is cheaper for the frequent misses.
+     */
+    @Nullable
+    default ByteBuffer getIfPresent(@NotNull ByteBuffer key) throws IOException {
+        final Value value = getTimestamped(key);
+        return value.isPresent() ? value.getData() : null;
+    }
+
+    /**
+     * Obtains {@link Value} with its write timestamp corresponding to given key.
+     * Removed values are reported as tombstones and never written ones as absent.
+     */
+    @NotNull
+    default Value getTimestamped(@NotNull ByteBuffer key) throws IOException {
+        try {
+            return Value.present(get(key), 0L);
+        } catch (NoSuchElementException e) {
+            return Value.absent();
         }
     }
 
+    /**
+     * Obtains {@link Value} corresponding to given key like {@link #getTimestamped(ByteBuffer)} does, but only
+     * if it's known without reading the disk, which is cheap enough for the selector threads.
+     *
+     * @return the value or {@code null} if the storage has to be read
+     */
+    @Nullable
+    default Value getCached(@NotNull final ByteBuffer key) throws IOException {
+        return null;
+    }
+
+    /**
+     * Obtains {@link Value}s with their write timestamps corresponding to given keys in the same order.
+     */
+    @NotNull
+    default List<Value> getAll(@NotNull final List<ByteBuffer> keys) throws IOException {
+        final List<Value> values = new ArrayList<>(keys.size());
+        for (final ByteBuffer key : keys) {
+            values.add(getTimestamped(key));
+        }
+        return values;
+    }
+
     /**
      * Inserts or updates value by given key.
      */
@@ -92,11 +221,52 @@ public interface DAO extends Closeable {
             @NotNull ByteBuffer key,
             @NotNull ByteBuffer value) throws IOException;
 
+    /**
+     * Inserts or updates value by given key with the write timestamp chosen by the caller,
+     * e.g. the same at every replica of the key.
+     */
+    default void upsert(
+            @NotNull ByteBuffer key,
+            @NotNull ByteBuffer value,
+            long timestamp) throws IOException {
+        upsert(key, value);
+    }
+
     /**
      * Removes value by given key.
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
 
+    /**
+     * Removes value by given key with the write timestamp of the tombstone chosen by the caller.
+     */
+    default void remove(
+            @NotNull ByteBuffer key,
+            long timestamp) throws IOException {
+        remove(key);
+    }
+
+    /**
+     * Applies all the upserts and removals of the batch in order.
+     */
+    default void upsertAll(@NotNull final Batch batch) throws IOException {
+        for (final Batch.Entry entry : batch) {
+            if (entry.isRemoval()) {
+                remove(entry.getKey());
+            } else {
+                upsert(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Describes the state of the storage and its caches as {@code name=value} lines.
+     */
+    @NotNull
+    default String stats() {
+        return "";
+    }
+
     /**
      * Performs compaction.
      */
@@ -18,11 +18,14 @@ package ru.mail.polis.dao;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.rocksdb.RocksDB;
-import org.rocksdb.Options;
 import org.rocksdb.RocksDBException;
-import org.rocksdb.BuiltinComparator;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -34,6 +37,12 @@ import org.jetbrains.annotations.NotNull;
 public final class DAOFactory {
     static final long MAX_HEAP = 256 * 1024 * 1024;
 
+    // Marks the data written with the header of Value, so the older raw values aren't misread
+    private static final String FORMAT_FILE = "FORMAT";
+    private static final String FORMAT = "timestamped-values-1";
+    // Present in every RocksDB database
+    private static final String ROCKSDB_FILE = "CURRENT";
+
     private DAOFactory() {
         // Not instantiatable
     }
@@ -58,15 +67,51 @@ public final class DAOFactory {
             throw new IllegalArgumentException("Path is not a directory: " + data);
         }
 
+        checkFormat(data.toPath());
+
         RocksDB.loadLibrary();
+        final List<AutoCloseable> resources = new ArrayList<>();
         try {
-            final var options = new Options();
-            options.setCreateIfMissing(true);
-            options.setComparator(BuiltinComparator.BYTEWISE_COMPARATOR);
+            final var config = RocksConfig.load();
+            final var options = config.toOptions(resources);
             final var db = RocksDB.open(options, data.getAbsolutePath());
-            return new RocksDAO(db);
+            DAO dao = new RocksDAO(db, config, resources);
+            if (config.getValueCacheSize() > 0) {
+                dao = new CachingDAO(dao, config.getValueCacheSize());
+            }
+            if (config.getKeyFilterSize() > 0) {
+                dao = new FilteringDAO(dao, config.getKeyFilterSize());
+            }
+            return dao;
         } catch (RocksDBException exception) {
-            throw new RockException("Cannot create RocksDB instance", exception);
+            final RockException failure = new RockException("Cannot create RocksDB instance", exception);
+            try {
+                RocksDAO.closeAll(resources);
+            } catch (RockException e) {
+                failure.addSuppressed(e);
+            }
+            throw failure;
+        }
+    }
+
+    /**
+     * Marks the new database with the current format and refuses to open the database of the other format.
+     *
+     * @throws IllegalStateException if the data was written in the other format and must be wiped
+     */
+    private static void checkFormat(@NotNull final Path data) throws IOException {
+        final Path marker = data.resolve(FORMAT_FILE);
+        if (Files.exists(marker)) {
+            final String format = new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim();
+            if (!FORMAT.equals(format)) {
+                throw new IllegalStateException("Unsupported data format " + format + " in " + data);
+            }
+            return;
+        }
+
+        if (Files.exists(data.resolve(ROCKSDB_FILE))) {
+            throw new IllegalStateException("Data without write timestamps in " + data + ". Wipe the directory.");
         }
+        Files.write(marker, FORMAT.getBytes(StandardCharsets.UTF_8));
     }
 }
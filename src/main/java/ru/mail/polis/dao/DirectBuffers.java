@@ -0,0 +1,98 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Off-heap buffers reused by the lookups.
+ *
+ * <p>A platform thread keeps its own buffer. Virtual threads are too many to keep a buffer each, so they
+ * borrow the buffers from a shared pool, which is limited in size. Once all the pooled buffers are borrowed,
+ * no buffer is given and the caller falls back to the heap.
+ *
+ * <p>Virtual threads are detected at runtime, since the code targets JDK 11, and exist starting with JDK 21.
+ */
+final class DirectBuffers {
+    // Thread.isVirtual() or null if the runtime has no virtual threads
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    private final int size;
+    private final int maxShared;
+    private final ThreadLocal<ByteBuffer> local;
+    private final Queue<ByteBuffer> shared = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    /**
+     * Creates empty pool.
+     *
+     * @param size      capacity of every buffer
+     * @param maxShared maximum amount of the buffers shared by the virtual threads
+     */
+    DirectBuffers(final int size, final int maxShared) {
+        this.size = size;
+        this.maxShared = maxShared;
+        this.local = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(size));
+    }
+
+    /**
+     * Borrows cleared buffer, which must be given back with {@link #release(ByteBuffer)} by the same thread.
+     *
+     * @return buffer or {@code null} if all the shared buffers are borrowed
+     */
+    @Nullable
+    ByteBuffer acquire() {
+        if (!isVirtual()) {
+            return local.get().clear();
+        }
+
+        final ByteBuffer buffer = shared.poll();
+        if (buffer != null) {
+            return buffer.clear();
+        }
+        if (allocated.incrementAndGet() > maxShared) {
+            allocated.decrementAndGet();
+            return null;
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Gives back the buffer borrowed with {@link #acquire()}.
+     */
+    void release(@NotNull final ByteBuffer buffer) {
+        if (isVirtual()) {
+            shared.add(buffer);
+        }
+    }
+
+    private static boolean isVirtual() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can't check the thread", e);
+        }
+    }
+
+    @Nullable
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(
+                    Thread.class,
+                    "isVirtual",
+                    MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Storage answering the point reads of the keys which have never been written without looking them up.
+ *
+ * <p>Every written key, removed ones included, is added to {@link KeyFilter} before the write, and the keys
+ * written before the start are loaded in background the same way, so the removals keep their timestamps.
+ * The filter is consulted once it's loaded and until it's saturated, so the reads of the missing keys cost
+ * a few hashed memory accesses.
+ *
+ * <p>The loading reads the whole storage on every start, competing with the requests for the disk, and the
+ * reads of the missing keys go to the storage until it's done. The storages which are rarely asked for
+ * the missing keys are better off without the filter.
+ */
+final class FilteringDAO implements DAO {
+    private final DAO dao;
+    private final KeyFilter filter;
+    private final Thread loader;
+    private final LongAdder filtered = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+    private volatile boolean loaded;
+    private volatile boolean closed;
+    private volatile Exception failure;
+
+    /**
+     * Wraps the storage and starts loading its keys.
+     *
+     * @param dao      storage to filter the reads of
+     * @param maxBytes memory to keep the filter in
+     */
+    FilteringDAO(
+            @NotNull final DAO dao,
+            final long maxBytes) {
+        this.dao = dao;
+        this.filter = new KeyFilter(maxBytes);
+        this.loader = new Thread(this::load, "key-filter-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void load() {
+        try (CloseableIterator<Record> keys = dao.writtenKeys()) {
+            while (!closed && keys.hasNext()) {
+                filter.add(keys.next().getKey());
+            }
+            loaded = !closed;
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Checks whether the key may be stored, which is {@code true} while the filter can't tell.
+     */
+    private boolean mightContain(@NotNull final ByteBuffer key) {
+        if (!loaded || filter.isSaturated() || filter.mightContain(key)) {
+            passed.increment();
+            return true;
+        }
+        filtered.increment();
+        return false;
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return dao.iterator(from);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return dao.range(from, to);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> parallelRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return dao.parallelRange(from, to);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> descendingRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return dao.descendingRange(from, to);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> keyRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final boolean descending) throws IOException {
+        return dao.keyRange(from, to, descending);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> writtenKeys() throws IOException {
+        return dao.writtenKeys();
+    }
+
+    @Override
+    public long snapshot() throws IOException {
+        return dao.snapshot();
+    }
+
+    @NotNull
+    @Override
+    public DAO at(final long snapshot) throws IOException {
+        return dao.at(snapshot);
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException {
+        final ByteBuffer value = getIfPresent(key);
+        if (value == null) {
+            throw new NoSuchElementExceptionLite(RocksDAO.NOT_FOUND);
+        }
+        return value;
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getIfPresent(@NotNull final ByteBuffer key) throws IOException {
+        return mightContain(key) ? dao.getIfPresent(key) : null;
+    }
+
+    @NotNull
+    @Override
+    public Value getTimestamped(@NotNull final ByteBuffer key) throws IOException {
+        return mightContain(key) ? dao.getTimestamped(key) : Value.absent();
+    }
+
+    @Nullable
+    @Override
+    public Value getCached(@NotNull final ByteBuffer key) throws IOException {
+        if (loaded && !filter.isSaturated() && !filter.mightContain(key)) {
+            filtered.increment();
+            return Value.absent();
+        }
+        // Passed keys are counted once they are read from the storage
+        return dao.getCached(key);
+    }
+
+    @NotNull
+    @Override
+    public List<Value> getAll(@NotNull final List<ByteBuffer> keys) throws IOException {
+        final List<Value> values = new ArrayList<>(keys.size());
+        final List<ByteBuffer> stored = new ArrayList<>(keys.size());
+        for (final ByteBuffer key : keys) {
+            if (mightContain(key)) {
+                stored.add(key);
+                values.add(null);
+            } else {
+                values.add(Value.absent());
+            }
+        }
+
+        if (stored.isEmpty()) {
+            return values;
+        }
+        if (stored.size() == keys.size()) {
+            return dao.getAll(keys);
+        }
+
+        final List<Value> read = dao.getAll(stored);
+        int next = 0;
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) == null) {
+                values.set(i, read.get(next++));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        // Added first, so that the reads never miss the key once it is written
+        filter.add(key);
+        dao.upsert(key, value);
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long timestamp) throws IOException {
+        filter.add(key);
+        dao.upsert(key, value, timestamp);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        // Tombstones are stored, so their timestamps must be read
+        filter.add(key);
+        dao.remove(key);
+    }
+
+    @Override
+    public void remove(
+            @NotNull final ByteBuffer key,
+            final long timestamp) throws IOException {
+        filter.add(key);
+        dao.remove(key, timestamp);
+    }
+
+    @Override
+    public void upsertAll(@NotNull final Batch batch) throws IOException {
+        for (final Batch.Entry entry : batch) {
+            filter.add(entry.getKey());
+        }
+        dao.upsertAll(batch);
+    }
+
+    @Override
+    public void compact() throws IOException {
+        dao.compact();
+    }
+
+    @NotNull
+    @Override
+    public String stats() {
+        final Exception loadFailure = failure;
+        return dao.stats()
+                + "filterLoaded=" + loaded
+                + "\nfilterKeys=" + filter.getKeys()
+                + "\nfilterCapacity=" + filter.getCapacity()
+                + "\nfilterSaturated=" + filter.isSaturated()
+                + "\nfilterSkipped=" + filtered.sum()
+                + "\nfilterPassed=" + passed.sum()
+                + (loadFailure == null ? "" : "\nfilterFailure=" + loadFailure)
+                + '\n';
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // The scan must be closed before the storage
+        boolean interrupted = false;
+        while (loader.isAlive()) {
+            try {
+                loader.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        dao.close();
+    }
+}
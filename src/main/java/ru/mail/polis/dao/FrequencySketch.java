@@ -0,0 +1,67 @@
+package ru.mail.polis.dao;
+
+/**
+ * Count-min sketch of 4-bit counters estimating how often the keys were accessed recently.
+ *
+ * <p>All the counters are halved once the amount of increments reaches ten times the width,
+ * so that the estimates follow the change of the popularity. Isn't thread safe.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final int MAX_COUNT = 15;
+
+    private final byte[] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * Creates empty sketch.
+     *
+     * @param capacity expected amount of the distinct keys
+     */
+    FrequencySketch(final int capacity) {
+        final int width = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.counters = new byte[width * SEEDS.length];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    void increment(final int hash) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int index = index(hash, i);
+            if (counters[index] < MAX_COUNT) {
+                counters[index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    int frequency(final int hash) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, counters[index(hash, i)]);
+        }
+        return frequency;
+    }
+
+    private int index(final int hash, final int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return row * (mask + 1) + ((int) h & mask);
+    }
+
+    private void reset() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = (byte) (counters[i] >> 1);
+        }
+        size /= 2;
+    }
+}
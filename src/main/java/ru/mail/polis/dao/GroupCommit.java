@@ -0,0 +1,122 @@
+package ru.mail.polis.dao;
+
+import com.google.common.base.Throwables;
+import org.jetbrains.annotations.NotNull;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces concurrent writes into a single {@link WriteBatch}.
+ *
+ * <p>Every writer enqueues its change and waits for the commit lock. The first one to get it becomes
+ * the leader and commits all the changes queued so far, so the rest of the group find their changes
+ * already written when they get the lock. A group is limited in size, so the leader keeps committing
+ * until its own change is written. Whatever fails the write of a group is rethrown to every writer of it.
+ */
+final class GroupCommit {
+    private static final int MAX_GROUP_SIZE = 1024;
+
+    private final RocksDB db;
+    private final WriteOptions options;
+    private final long windowNanos;
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final Lock commitLock = new ReentrantLock();
+
+    /**
+     * Creates the pipeline.
+     *
+     * @param db           database to write to
+     * @param options      options of every batch write
+     * @param windowMicros time for the leader to wait for more writers before the commit
+     */
+    GroupCommit(@NotNull final RocksDB db,
+                @NotNull final WriteOptions options,
+                final long windowMicros) {
+        this.db = db;
+        this.options = options;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
+    /**
+     * Writes raw value by raw key and waits until the group containing the change is committed.
+     */
+    void put(@NotNull final byte[] key, @NotNull final byte[] value) throws RocksDBException {
+        final Pending pending = new Pending(key, value);
+        queue.add(pending);
+
+        commitLock.lock();
+        try {
+            if (!pending.done && windowNanos > 0) {
+                LockSupport.parkNanos(windowNanos);
+            }
+            if (!pending.done) {
+                // Reused by all the groups the leader commits
+                final Pending[] group = new Pending[MAX_GROUP_SIZE];
+                while (!pending.done) {
+                    commit(group);
+                }
+            }
+        } finally {
+            commitLock.unlock();
+        }
+
+        final Throwable error = pending.error;
+        if (error != null) {
+            Throwables.throwIfInstanceOf(error, RocksDBException.class);
+            Throwables.throwIfUnchecked(error);
+            throw new IllegalStateException("Can't commit the group", error);
+        }
+    }
+
+    private void commit(@NotNull final Pending[] group) {
+        int size = 0;
+        while (size < group.length) {
+            final Pending pending = queue.poll();
+            if (pending == null) {
+                break;
+            }
+            group[size++] = pending;
+        }
+
+        Throwable error = null;
+        try (WriteBatch batch = new WriteBatch()) {
+            for (int i = 0; i < size; i++) {
+                batch.put(group[i].key, group[i].value);
+            }
+            db.write(options, batch);
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            // Polled writers must never be left waiting, whatever has been thrown
+            for (int i = 0; i < size; i++) {
+                group[i].error = error;
+                group[i].done = true;
+                group[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Queued change, accessed by the other writers under the commit lock only.
+     */
+    private static final class Pending {
+        private final byte[] key;
+        private final byte[] value;
+        private boolean done;
+        private Throwable error;
+
+        Pending(@NotNull final byte[] key, @NotNull final byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
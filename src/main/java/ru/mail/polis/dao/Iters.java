@@ -31,7 +31,7 @@ import com.google.common.base.Functions;
  */
 public final class Iters {
 
-    private static final Iterator<Object> EMPTY = new Iterator<>() {
+    private static final CloseableIterator<Object> EMPTY = new CloseableIterator<>() {
         @Override
         public boolean hasNext() {
             return false;
@@ -41,6 +41,11 @@ public final class Iters {
         public Object next() {
             throw new NoSuchElementException("Next on empty iterator");
         }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
     };
 
     private Iters() {
@@ -48,27 +53,107 @@ public final class Iters {
     }
 
     @SuppressWarnings("unchecked")
-    public static <E> Iterator<E> empty() {
-        return (Iterator<E>) EMPTY;
+    public static <E> CloseableIterator<E> empty() {
+        return (CloseableIterator<E>) EMPTY;
+    }
+
+    /**
+     * Adapts iterator to {@link CloseableIterator} closing it if it holds any resources.
+     */
+    public static <E> CloseableIterator<E> closeable(@NotNull final Iterator<E> iter) {
+        if (iter instanceof CloseableIterator) {
+            return (CloseableIterator<E>) iter;
+        }
+        return new ForwardingIterator<>(iter);
     }
 
-    public static <E extends Comparable<E>> Iterator<E> until(
+    public static <E extends Comparable<E>> CloseableIterator<E> until(
             @NotNull final Iterator<E> iter,
             @NotNull final E until) {
         return new UntilIterator<>(iter, until);
     }
 
-    public static <E> Iterator<E> collapseEquals(
+    /**
+     * Takes at most {@code limit} elements, closing the source right after the last one.
+     */
+    public static <E> CloseableIterator<E> limit(
+            @NotNull final Iterator<E> iter,
+            final long limit) {
+        return new LimitIterator<>(iter, limit);
+    }
+
+    /**
+     * Runs the action once the iterator is closed.
+     */
+    public static <E> CloseableIterator<E> onClose(
+            @NotNull final CloseableIterator<E> iter,
+            @NotNull final Runnable action) {
+        return new ForwardingIterator<>(iter) {
+            private boolean closed;
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        action.run();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Maps elements on the fly, closing the source along with the result.
+     */
+    public static <E, R> CloseableIterator<R> transform(
+            @NotNull final Iterator<E> iter,
+            @NotNull final Function<E, R> function) {
+        return new TransformIterator<>(iter, function);
+    }
+
+    public static <E> CloseableIterator<E> collapseEquals(
             @NotNull final Iterator<E> iter,
             @NotNull final Function<E, ?> byKey) {
         return new CollapseEqualsIterator<>(iter, byKey);
     }
 
-    public static <E> Iterator<E> collapseEquals(@NotNull final Iterator<E> iter) {
+    public static <E> CloseableIterator<E> collapseEquals(@NotNull final Iterator<E> iter) {
         return new CollapseEqualsIterator<>(iter);
     }
 
-    private static class UntilIterator<E extends Comparable<E>> implements Iterator<E> {
+    private static void close(@NotNull final Iterator<?> iter) {
+        if (iter instanceof CloseableIterator) {
+            ((CloseableIterator<?>) iter).close();
+        }
+    }
+
+    private static class ForwardingIterator<E> implements CloseableIterator<E> {
+        private final Iterator<E> iter;
+
+        ForwardingIterator(@NotNull final Iterator<E> iter) {
+            this.iter = iter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iter.hasNext();
+        }
+
+        @Override
+        public E next() {
+            return iter.next();
+        }
+
+        @Override
+        public void close() {
+            Iters.close(iter);
+        }
+    }
+
+    private static class UntilIterator<E extends Comparable<E>> implements CloseableIterator<E> {
         private final Iterator<E> iter;
         private final E until;
 
@@ -95,9 +180,80 @@ public final class Iters {
             this.next = iter.hasNext() ? iter.next() : null;
             return result;
         }
+
+        @Override
+        public void close() {
+            Iters.close(iter);
+        }
+    }
+
+    private static class TransformIterator<E, R> implements CloseableIterator<R> {
+        private final Iterator<E> iter;
+        private final Function<E, R> function;
+
+        TransformIterator(
+                @NotNull final Iterator<E> iter,
+                @NotNull final Function<E, R> function) {
+            this.iter = iter;
+            this.function = function;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iter.hasNext();
+        }
+
+        @Override
+        public R next() {
+            return function.apply(iter.next());
+        }
+
+        @Override
+        public void close() {
+            Iters.close(iter);
+        }
+    }
+
+    private static class LimitIterator<E> implements CloseableIterator<E> {
+        private final Iterator<E> iter;
+
+        private long remaining;
+
+        LimitIterator(
+                @NotNull final Iterator<E> iter,
+                final long limit) {
+            this.iter = iter;
+            this.remaining = limit;
+            if (remaining <= 0) {
+                close();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0 && iter.hasNext();
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Limit is reached");
+            }
+
+            final E result = iter.next();
+            if (--remaining == 0) {
+                close();
+            }
+            return result;
+        }
+
+        @Override
+        public void close() {
+            Iters.close(iter);
+        }
     }
 
-    private static class CollapseEqualsIterator<E> implements Iterator<E> {
+    private static class CollapseEqualsIterator<E> implements CloseableIterator<E> {
         private final Iterator<E> iter;
         private final Function<E, ?> keyExtractor;
 
@@ -139,5 +295,10 @@ public final class Iters {
 
             return result;
         }
+
+        @Override
+        public void close() {
+            Iters.close(iter);
+        }
     }
 }
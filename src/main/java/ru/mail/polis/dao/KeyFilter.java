@@ -0,0 +1,128 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bloom filter of the keys, which tells for sure that a key has never been added.
+ *
+ * <p>All the probes of a key fall into a single block of a cache line, so a lookup touches the memory once.
+ * The filter counts the bits it sets rather than the keys, since a key may set no new bits whether it has been
+ * added before or not. The share of the set bits gives both the estimate of the distinct keys added and the
+ * false positive rate, so the filter reports itself saturated once more bits are set than the keys it's sized
+ * for set on average.
+ */
+final class KeyFilter {
+    /**
+     * Memory taken by the smallest filter.
+     */
+    static final int MIN_SIZE = 64;
+
+    private static final int BLOCK_LONGS = MIN_SIZE / Long.BYTES;
+    private static final int BLOCK_BITS = BLOCK_LONGS * Long.SIZE;
+    private static final int PROBES = 6;
+    // Gives about 1% of false positives
+    private static final int BITS_PER_KEY = 10;
+
+    private final AtomicLongArray bits;
+    private final long blocks;
+    private final long capacity;
+    // Expected number of the set bits once the capacity is reached
+    private final long saturationBits;
+    private final LongAdder setBits = new LongAdder();
+
+    /**
+     * Creates empty filter.
+     *
+     * @param maxBytes memory to keep the filter in
+     */
+    KeyFilter(final long maxBytes) {
+        final long blockCount = Math.min(maxBytes / Long.BYTES, Integer.MAX_VALUE) / BLOCK_LONGS;
+        if (blockCount <= 0) {
+            throw new IllegalArgumentException("Filter must fit at least " + MIN_SIZE + " bytes");
+        }
+        this.bits = new AtomicLongArray((int) blockCount * BLOCK_LONGS);
+        this.blocks = blockCount;
+        this.capacity = blockCount * BLOCK_BITS / BITS_PER_KEY;
+        final double total = (double) blockCount * BLOCK_BITS;
+        this.saturationBits = (long) (total * -Math.expm1(-PROBES * capacity / total));
+    }
+
+    void add(@NotNull final ByteBuffer key) {
+        final long hash = hash(key);
+        final int block = block(hash);
+        long probes = mix(hash);
+        for (int i = 0; i < PROBES; i++) {
+            final int bit = (int) probes & (BLOCK_BITS - 1);
+            final int index = block + (bit >>> 6);
+            final long mask = 1L << bit;
+            // Only the writer which has flipped the bit counts it
+            if ((bits.get(index) & mask) == 0
+                    && (bits.getAndAccumulate(index, mask, (current, set) -> current | set) & mask) == 0) {
+                setBits.increment();
+            }
+            probes >>>= 9;
+        }
+    }
+
+    boolean mightContain(@NotNull final ByteBuffer key) {
+        final long hash = hash(key);
+        final int block = block(hash);
+        long probes = mix(hash);
+        for (int i = 0; i < PROBES; i++) {
+            final int bit = (int) probes & (BLOCK_BITS - 1);
+            if ((bits.get(block + (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+            probes >>>= 9;
+        }
+        return true;
+    }
+
+    boolean isSaturated() {
+        return setBits.sum() > saturationBits;
+    }
+
+    /**
+     * Estimates the number of the distinct keys added by the share of the set bits.
+     */
+    long getKeys() {
+        final double total = (double) blocks * BLOCK_BITS;
+        return Math.round(-total / PROBES * Math.log1p(-setBits.sum() / total));
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    private int block(final long hash) {
+        return (int) Math.multiplyHigh(hash >>> 1, blocks << 1) * BLOCK_LONGS;
+    }
+
+    private static long hash(@NotNull final ByteBuffer key) {
+        final ByteBuffer bytes = key.duplicate().order(ByteOrder.BIG_ENDIAN);
+        final int limit = bytes.limit();
+        int position = bytes.position();
+        long hash = 0x9e3779b97f4a7c15L ^ bytes.remaining();
+        for (; position + Long.BYTES <= limit; position += Long.BYTES) {
+            hash = Long.rotateLeft(hash ^ mix(bytes.getLong(position)), 27) * 0x9e3779b97f4a7c15L;
+        }
+
+        long tail = 0;
+        for (; position < limit; position++) {
+            tail = (tail << 8) | (bytes.get(position) & 0xff);
+        }
+        return mix(hash ^ mix(tail));
+    }
+
+    private static long mix(final long value) {
+        long z = value;
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,449 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Values of the hot keys kept in direct memory, out of the reach of the garbage collector.
+ *
+ * <p>The memory is split between the segments, each guarded by its own lock. A segment carves its slab
+ * into pages of a single size class each, where the data of a value takes the smallest slot it fits in.
+ * The keys along with the timestamps live on heap, so do absent values and tombstones, which have no data
+ * to store. Once a size class is out of slots, a new value evicts the least recently used one of the class
+ * only if it has been requested more often lately, which keeps a scan of cold keys from flushing the cache.
+ *
+ * <p>Every write of a key bumps its version, so the value read before the write isn't cached after it.
+ */
+final class OffHeapCache {
+    /**
+     * Size of the largest value kept in the cache.
+     */
+    static final int MAX_VALUE_SIZE = 64 * 1024;
+
+    private static final int PAGE_SIZE = MAX_VALUE_SIZE;
+    private static final int MIN_SLOT_SIZE = 64;
+    // Slot sizes are powers of two from the minimal slot up to the page
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(PAGE_SIZE / MIN_SLOT_SIZE) + 1;
+    // Pseudo class of the values without data, which take no slot
+    private static final int NO_DATA = SIZE_CLASSES;
+    private static final int NO_SLOT = -1;
+    private static final int MAX_SEGMENTS = 16;
+    private static final int STRIPES = 64;
+    // Average memory per entry used to limit the amount of the keys kept on heap
+    private static final int BYTES_PER_ENTRY = 512;
+
+    private final Segment[] segments;
+    private final long capacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * Creates empty cache.
+     *
+     * @param maxBytes direct memory to keep the values in, at least a single page
+     */
+    OffHeapCache(final long maxBytes) {
+        final long pages = maxBytes / PAGE_SIZE;
+        if (pages <= 0) {
+            throw new IllegalArgumentException("Cache must fit at least " + PAGE_SIZE + " bytes");
+        }
+
+        final int count = Integer.highestOneBit((int) Math.min(MAX_SEGMENTS, pages));
+        final int segmentSize = (int) Math.min(pages / count, Integer.MAX_VALUE / PAGE_SIZE) * PAGE_SIZE;
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+        this.capacity = (long) segmentSize * count;
+    }
+
+    /**
+     * Looks the value up and records the access for the admission.
+     *
+     * @return the cached value or {@code null} if the key isn't cached
+     */
+    @Nullable
+    Value get(@NotNull final ByteBuffer key) {
+        return lookup(key, true);
+    }
+
+    /**
+     * Looks the value up like {@link #get(ByteBuffer)} does, but records a miss neither in the stats nor for
+     * the admission, since the caller is going to look the key up with {@link #get(ByteBuffer)} once more.
+     *
+     * @return the cached value or {@code null} if the key isn't cached
+     */
+    @Nullable
+    Value probe(@NotNull final ByteBuffer key) {
+        return lookup(key, false);
+    }
+
+    @Nullable
+    private Value lookup(
+            @NotNull final ByteBuffer key,
+            final boolean recordMiss) {
+        final int hash = hash(key);
+        final Value value = segment(hash).get(key, hash, recordMiss);
+        if (value != null) {
+            hits.increment();
+        } else if (recordMiss) {
+            misses.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Reads the write counter of the stripe of the segment the key falls into. {@link #put} compares it with
+     * the counter at the time of caching to tell whether a write has raced with the read of the value.
+     */
+    long version(@NotNull final ByteBuffer key) {
+        final int hash = hash(key);
+        return segment(hash).version(hash);
+    }
+
+    /**
+     * Caches the value read from the storage unless the key has been written since the version was taken
+     * or the value isn't popular enough to replace the cached ones.
+     */
+    void put(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value,
+            final long version) {
+        if (value.isPresent() && value.getData().remaining() > MAX_VALUE_SIZE) {
+            return;
+        }
+
+        final int hash = hash(key);
+        segment(hash).put(key, value, version, hash);
+    }
+
+    /**
+     * Evicts the key and bumps the write counter of its stripe. Called once the write has reached the storage,
+     * so that neither the cached value nor a value being read concurrently outlives the write.
+     */
+    void invalidate(@NotNull final ByteBuffer key) {
+        final int hash = hash(key);
+        segment(hash).invalidate(key, hash);
+    }
+
+    /**
+     * Describes the efficiency of the cache.
+     */
+    @NotNull
+    String stats() {
+        long entries = 0;
+        long used = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                entries += segment.entries.size();
+                used += segment.used;
+            }
+        }
+
+        final long total = hits.sum() + misses.sum();
+        return "cacheCapacity=" + capacity
+                + "\ncacheUsed=" + used
+                + "\ncacheEntries=" + entries
+                + "\ncacheHits=" + hits.sum()
+                + "\ncacheMisses=" + misses.sum()
+                + "\ncacheHitRatio=" + (total == 0 ? 0.0 : (double) hits.sum() / total)
+                + "\ncacheEvictions=" + evictions.sum()
+                + "\ncacheRejections=" + rejections.sum()
+                + '\n';
+    }
+
+    /**
+     * Drops all the values and the slabs, so the direct memory is freed as soon as the garbage collector
+     * gets to the buffers rather than once the whole cache is unreachable. A closed cache caches nothing.
+     */
+    void close() {
+        for (final Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    private static int hash(@NotNull final ByteBuffer key) {
+        final int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    @NotNull
+    private Segment segment(final int hash) {
+        return segments[(hash >>> 24) & (segments.length - 1)];
+    }
+
+    private static int sizeClass(final int length) {
+        if (length == 0) {
+            return NO_DATA;
+        }
+        final int bits = Integer.SIZE - Integer.numberOfLeadingZeros(length - 1);
+        return Math.max(0, bits - Integer.numberOfTrailingZeros(MIN_SLOT_SIZE));
+    }
+
+    private final class Segment {
+        // Null once the cache is closed
+        @Nullable
+        private ByteBuffer slab;
+        private final int maxEntries;
+        private final FrequencySketch sketch;
+        private final Map<ByteBuffer, Entry> entries = new HashMap<>();
+        private final long[] versions = new long[STRIPES];
+        // Least recently used entries of every size class go first
+        private final Entry[] heads = new Entry[SIZE_CLASSES + 1];
+        private final Entry[] tails = new Entry[SIZE_CLASSES + 1];
+        private final int[] counts = new int[SIZE_CLASSES + 1];
+        private final int[][] freeSlots = new int[SIZE_CLASSES][];
+        private final int[] freeCounts = new int[SIZE_CLASSES];
+        private int nextPage;
+        private long used;
+
+        Segment(final int size) {
+            this.slab = ByteBuffer.allocateDirect(size);
+            this.maxEntries = Math.max(1, size / BYTES_PER_ENTRY);
+            this.sketch = new FrequencySketch(maxEntries);
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                freeSlots[i] = new int[16];
+            }
+        }
+
+        @Nullable
+        synchronized Value get(
+                @NotNull final ByteBuffer key,
+                final int hash,
+                final boolean recordMiss) {
+            final Entry entry = entries.get(key);
+            if (entry == null) {
+                if (recordMiss) {
+                    sketch.increment(hash);
+                }
+                return null;
+            }
+
+            sketch.increment(hash);
+            unlink(entry);
+            link(entry);
+            return entry.toValue();
+        }
+
+        synchronized long version(final int hash) {
+            return versions[hash & (STRIPES - 1)];
+        }
+
+        synchronized void put(
+                @NotNull final ByteBuffer key,
+                @NotNull final Value value,
+                final long version,
+                final int hash) {
+            if (slab == null || versions[hash & (STRIPES - 1)] != version) {
+                return;
+            }
+
+            final Entry existing = entries.get(key);
+            if (existing != null) {
+                drop(existing);
+            }
+
+            final ByteBuffer data = value.isPresent() ? value.getData() : null;
+            final int sizeClass = sizeClass(data == null ? 0 : data.remaining());
+            if (entries.size() >= maxEntries && !evict(victim(sizeClass), hash)) {
+                return;
+            }
+
+            final int slot = allocate(sizeClass, hash);
+            if (slot == NO_SLOT && sizeClass != NO_DATA) {
+                return;
+            }
+
+            final ByteBuffer copy = ByteBuffer.wrap(ByteBufferUtils.getByteArray(key));
+            final Entry entry = new Entry(copy, hash, value, sizeClass);
+            if (slot != NO_SLOT) {
+                entry.slot = slot;
+                entry.length = data.remaining();
+                slab.position(slot);
+                slab.put(data);
+                used += entry.length;
+            }
+            entries.put(entry.key, entry);
+            link(entry);
+        }
+
+        synchronized void invalidate(
+                @NotNull final ByteBuffer key,
+                final int hash) {
+            versions[hash & (STRIPES - 1)]++;
+            final Entry entry = entries.get(key);
+            if (entry != null) {
+                drop(entry);
+            }
+        }
+
+        synchronized void close() {
+            entries.clear();
+            Arrays.fill(heads, null);
+            Arrays.fill(tails, null);
+            Arrays.fill(counts, 0);
+            Arrays.fill(freeCounts, 0);
+            nextPage = 0;
+            used = 0;
+            slab = null;
+        }
+
+        /**
+         * Finds a slot for the data of the class, evicting the least recently used value of the class if needed.
+         */
+        private int allocate(
+                final int sizeClass,
+                final int hash) {
+            if (sizeClass == NO_DATA) {
+                return NO_SLOT;
+            }
+
+            if (freeCounts[sizeClass] == 0) {
+                if (nextPage + PAGE_SIZE <= slab.capacity()) {
+                    final int slotSize = MIN_SLOT_SIZE << sizeClass;
+                    for (int slot = nextPage + PAGE_SIZE - slotSize; slot >= nextPage; slot -= slotSize) {
+                        free(sizeClass, slot);
+                    }
+                    nextPage += PAGE_SIZE;
+                } else if (!evict(heads[sizeClass], hash)) {
+                    return NO_SLOT;
+                }
+            }
+            return freeSlots[sizeClass][--freeCounts[sizeClass]];
+        }
+
+        /**
+         * Picks the entry to give way to a new one of the class: the oldest of the class or of the largest class.
+         */
+        @Nullable
+        private Entry victim(final int sizeClass) {
+            if (heads[sizeClass] != null) {
+                return heads[sizeClass];
+            }
+
+            int largest = 0;
+            for (int i = 1; i < counts.length; i++) {
+                if (counts[i] > counts[largest]) {
+                    largest = i;
+                }
+            }
+            return heads[largest];
+        }
+
+        /**
+         * Evicts the victim if the candidate has been requested more often than the victim lately.
+         */
+        private boolean evict(
+                @Nullable final Entry victim,
+                final int candidate) {
+            if (victim == null || sketch.frequency(candidate) <= sketch.frequency(victim.hash)) {
+                rejections.increment();
+                return false;
+            }
+
+            evictions.increment();
+            drop(victim);
+            return true;
+        }
+
+        private void drop(@NotNull final Entry entry) {
+            entries.remove(entry.key);
+            unlink(entry);
+            if (entry.sizeClass != NO_DATA) {
+                free(entry.sizeClass, entry.slot);
+                used -= entry.length;
+            }
+        }
+
+        private void free(
+                final int sizeClass,
+                final int slot) {
+            if (freeCounts[sizeClass] == freeSlots[sizeClass].length) {
+                freeSlots[sizeClass] = Arrays.copyOf(freeSlots[sizeClass], freeCounts[sizeClass] * 2);
+            }
+            freeSlots[sizeClass][freeCounts[sizeClass]++] = slot;
+        }
+
+        private void link(@NotNull final Entry entry) {
+            final int sizeClass = entry.sizeClass;
+            entry.prev = tails[sizeClass];
+            entry.next = null;
+            if (tails[sizeClass] == null) {
+                heads[sizeClass] = entry;
+            } else {
+                tails[sizeClass].next = entry;
+            }
+            tails[sizeClass] = entry;
+            counts[sizeClass]++;
+        }
+
+        private void unlink(@NotNull final Entry entry) {
+            final int sizeClass = entry.sizeClass;
+            if (entry.prev == null) {
+                heads[sizeClass] = entry.next;
+            } else {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next == null) {
+                tails[sizeClass] = entry.prev;
+            } else {
+                entry.next.prev = entry.prev;
+            }
+            entry.prev = null;
+            entry.next = null;
+            counts[sizeClass]--;
+        }
+
+        private final class Entry {
+            private final ByteBuffer key;
+            private final int hash;
+            private final long timestamp;
+            private final boolean tombstone;
+            private final boolean absent;
+            private final int sizeClass;
+            private int slot = NO_SLOT;
+            private int length;
+            private Entry prev;
+            private Entry next;
+
+            Entry(
+                    @NotNull final ByteBuffer key,
+                    final int hash,
+                    @NotNull final Value value,
+                    final int sizeClass) {
+                this.key = key;
+                this.hash = hash;
+                this.timestamp = value.getTimestamp();
+                this.tombstone = value.isTombstone();
+                this.absent = !value.isPresent() && !value.isTombstone();
+                this.sizeClass = sizeClass;
+            }
+
+            @NotNull
+            Value toValue() {
+                if (absent) {
+                    return Value.absent();
+                }
+                if (tombstone) {
+                    return Value.tombstone(timestamp);
+                }
+
+                final byte[] data = new byte[length];
+                if (length > 0) {
+                    slab.position(slot);
+                    slab.get(data);
+                }
+                return Value.present(ByteBuffer.wrap(data), timestamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Iterator over consecutive sub-ranges scanned in parallel on the pool.
+ *
+ * <p>Every sub-range is scanned by its own task, which buffers the records in batches for the consumer.
+ * Once the buffer of the sub-range exceeds its share of the byte budget, the task pauses and gives its thread
+ * back to the pool, and the consumer resubmits it after draining half of the buffer. So the scans never block
+ * the pool and run at most about the budget ahead of the consumer. The consumer drains the buffers one after
+ * another, which keeps the records in order.
+ */
+final class ParallelRangeIterator implements CloseableIterator<Record> {
+    private static final int BATCH_SIZE = 256;
+    private static final long BATCH_BYTES = 64L * 1024;
+    // Rough heap footprint of a record besides its key and value
+    private static final long BYTES_PER_RECORD = 64;
+
+    private final Executor pool;
+    private final List<Part> parts;
+    private final Runnable release;
+    // Release is run once all the tasks and the consumer are done with the sub-ranges
+    private final AtomicInteger owners;
+
+    private int current;
+    private Iterator<Record> batch = Collections.emptyIterator();
+    private boolean closed;
+
+    /**
+     * Starts scanning the sub-ranges.
+     *
+     * @param pool             pool to scan on
+     * @param ranges           iterators over consecutive sub-ranges, closed by the tasks
+     * @param maxBufferedBytes records to read ahead of the consumer in bytes, shared by the sub-ranges
+     * @param release          action to run once all the iterators are closed
+     */
+    ParallelRangeIterator(
+            @NotNull final Executor pool,
+            @NotNull final List<CloseableIterator<Record>> ranges,
+            final long maxBufferedBytes,
+            @NotNull final Runnable release) {
+        this.pool = pool;
+        this.parts = new ArrayList<>(ranges.size());
+        this.release = release;
+        this.owners = new AtomicInteger(ranges.size() + 1);
+        final long partBytes = Math.max(BATCH_BYTES, maxBufferedBytes / ranges.size());
+        for (final CloseableIterator<Record> range : ranges) {
+            parts.add(new Part(range, partBytes));
+        }
+        for (final Part part : parts) {
+            part.submit();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!closed && !batch.hasNext()) {
+            if (current == parts.size()) {
+                close();
+                return false;
+            }
+
+            final List<Record> next = parts.get(current).take();
+            if (next == null) {
+                current++;
+            } else {
+                batch = next.iterator();
+            }
+        }
+        return !closed;
+    }
+
+    @Override
+    public Record next() throws IllegalStateException {
+        if (!hasNext()) {
+            throw new IllegalStateException("Iterator is exhausted");
+        }
+        return batch.next();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        batch = Collections.emptyIterator();
+        for (final Part part : parts) {
+            part.cancel();
+        }
+        leave();
+    }
+
+    private void leave() {
+        if (owners.decrementAndGet() == 0) {
+            release.run();
+        }
+    }
+
+    private static long sizeOf(@NotNull final Record record) {
+        return record.getKey().remaining() + record.getValue().remaining() + BYTES_PER_RECORD;
+    }
+
+    /**
+     * Sub-range along with its buffer. The range is read by at most one task at a time.
+     */
+    private final class Part {
+        private final CloseableIterator<Record> range;
+        private final long maxBufferedBytes;
+
+        // Guarded by this
+        private final Deque<Chunk> chunks = new ArrayDeque<>();
+        private long bufferedBytes;
+        // Task is either submitted or running
+        private boolean scanning;
+        // No more records are going to be buffered and the range is closed or about to be
+        private boolean done;
+        private boolean cancelled;
+        private RuntimeException failure;
+
+        Part(@NotNull final CloseableIterator<Record> range,
+             final long maxBufferedBytes) {
+            this.range = range;
+            this.maxBufferedBytes = maxBufferedBytes;
+        }
+
+        void scan() {
+            try {
+                while (true) {
+                    synchronized (this) {
+                        if (cancelled) {
+                            break;
+                        }
+                        if (bufferedBytes >= maxBufferedBytes) {
+                            // Resubmitted by the consumer
+                            scanning = false;
+                            return;
+                        }
+                    }
+
+                    if (!range.hasNext()) {
+                        break;
+                    }
+                    push(read());
+                }
+                end(null);
+            } catch (RuntimeException e) {
+                end(e);
+            }
+        }
+
+        @NotNull
+        private Chunk read() {
+            final List<Record> records = new ArrayList<>(BATCH_SIZE);
+            long bytes = 0;
+            while (records.size() < BATCH_SIZE && bytes < BATCH_BYTES && range.hasNext()) {
+                final Record record = range.next();
+                records.add(record);
+                bytes += sizeOf(record);
+            }
+            return new Chunk(records, bytes);
+        }
+
+        private synchronized void push(@NotNull final Chunk chunk) {
+            chunks.add(chunk);
+            bufferedBytes += chunk.bytes;
+            notifyAll();
+        }
+
+        private void end(@Nullable final RuntimeException error) {
+            synchronized (this) {
+                failure = error;
+                done = true;
+                scanning = false;
+                notifyAll();
+            }
+            range.close();
+            leave();
+        }
+
+        void submit() {
+            synchronized (this) {
+                scanning = true;
+            }
+            try {
+                pool.execute(this::scan);
+            } catch (RejectedExecutionException e) {
+                end(new IllegalStateException("Scan pool is shut down", e));
+            }
+        }
+
+        /**
+         * Waits for the next batch of the sub-range and resumes the paused scan once half of the buffer is drained.
+         *
+         * @return records or {@code null} if the sub-range is over
+         */
+        @Nullable
+        List<Record> take() {
+            final Chunk chunk;
+            final boolean resume;
+            synchronized (this) {
+                while (chunks.isEmpty() && !done) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Scan is interrupted", e);
+                    }
+                }
+
+                if (failure != null) {
+                    throw failure;
+                }
+
+                chunk = chunks.poll();
+                if (chunk == null) {
+                    return null;
+                }
+                bufferedBytes -= chunk.bytes;
+                resume = !scanning && !done && bufferedBytes <= maxBufferedBytes / 2;
+            }
+
+            if (resume) {
+                submit();
+            }
+            return chunk.records;
+        }
+
+        void cancel() {
+            final boolean paused;
+            synchronized (this) {
+                cancelled = true;
+                chunks.clear();
+                bufferedBytes = 0;
+                // The running task closes the range itself
+                paused = !scanning && !done;
+            }
+            if (paused) {
+                end(null);
+            }
+        }
+    }
+
+    private static final class Chunk {
+        private final List<Record> records;
+        private final long bytes;
+
+        Chunk(@NotNull final List<Record> records,
+              final long bytes) {
+            this.records = records;
+            this.bytes = bytes;
+        }
+    }
+}
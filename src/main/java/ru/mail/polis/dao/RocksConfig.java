@@ -0,0 +1,261 @@
+package ru.mail.polis.dao;
+
+import com.google.common.base.Splitter;
+import org.jetbrains.annotations.NotNull;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.BuiltinComparator;
+import org.rocksdb.Cache;
+import org.rocksdb.ClockCache;
+import org.rocksdb.CompressionType;
+import org.rocksdb.Filter;
+import org.rocksdb.LRUCache;
+import org.rocksdb.Options;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Tuning of RocksDB storage.
+ *
+ * <p>Settings are read from the properties file pointed by {@code rocks.config} system property
+ * and may be overridden by the system properties with the same names:
+ * <ul>
+ * <li>{@code rocks.blockCache.type} -- {@code lru} or {@code clock}</li>
+ * <li>{@code rocks.blockCache.size} -- block cache capacity in bytes</li>
+ * <li>{@code rocks.bloom.bitsPerKey} -- bloom filter bits per key, {@code 0} disables the filter</li>
+ * <li>{@code rocks.cacheIndexAndFilterBlocks} -- keep index and filter blocks in the block cache</li>
+ * <li>{@code rocks.pinL0FilterAndIndexBlocks} -- never evict index and filter blocks of level 0</li>
+ * <li>{@code rocks.blockSize} -- data block size in bytes</li>
+ * <li>{@code rocks.compressionPerLevel} -- comma separated compression per level,
+ * e.g. {@code none,none,lz4,lz4,zstd}</li>
+ * <li>{@code rocks.sharedMemory} -- share the block cache and memtable budget
+ * between all the storages of the process</li>
+ * <li>{@code rocks.writeBuffer.size} -- total memtable budget in bytes of the shared memory,
+ * which is charged to the block cache and so must be smaller than it</li>
+ * <li>{@code rocks.sync} -- sync WAL on every write (or every group of writes)</li>
+ * <li>{@code rocks.groupCommit} -- coalesce concurrent upserts and removals into a single write, off by default,
+ * since all the writes then wait for a single lock, which pays off only when every write syncs the WAL</li>
+ * <li>{@code rocks.groupCommit.windowMicros} -- time for the group leader to wait for more writers</li>
+ * <li>{@code rocks.scan.fillCache} -- put the blocks read by range scans into the block cache</li>
+ * <li>{@code rocks.scan.readahead} -- readahead of range scans in bytes, {@code 0} picks it
+ * by the kind of the scan</li>
+ * <li>{@code rocks.scan.parallelism} -- threads to scan sub-ranges of a large range with,
+ * {@code 1} scans sequentially</li>
+ * <li>{@code rocks.snapshot.ttlMillis} -- time for a snapshot pinned for paged scans to live after its last use</li>
+ * <li>{@code rocks.tombstone.ttlMillis} -- grace period of the tombstones of the removals, which must exceed
+ * the time a replica may miss the writes for, or the removed values come back, {@code 0} keeps them forever</li>
+ * <li>{@code rocks.valueCache.size} -- direct memory in bytes to cache the values of the hot keys in,
+ * taken by every storage on top of the block cache until it is closed, {@code 0} disables the cache</li>
+ * <li>{@code rocks.keyFilter.size} -- memory in bytes for the filter of the written keys, which answers
+ * the reads of the missing keys without the lookups, but only after a background scan of all the keys on every
+ * start, which reads the whole database once, {@code 0} skips both the filter and the scan</li>
+ * </ul>
+ */
+public final class RocksConfig {
+    private static final String CONFIG_FILE = "rocks.config";
+    private static final String PREFIX = "rocks.";
+
+    private final String blockCacheType;
+    private final long blockCacheSize;
+    private final double bloomBitsPerKey;
+    private final boolean cacheIndexAndFilterBlocks;
+    private final boolean pinL0FilterAndIndexBlocks;
+    private final long blockSize;
+    private final List<CompressionType> compressionPerLevel;
+    private final boolean sharedMemory;
+    private final long writeBufferSize;
+    private final boolean sync;
+    private final boolean groupCommit;
+    private final long groupCommitWindowMicros;
+    private final boolean scanFillCache;
+    private final long scanReadahead;
+    private final int scanParallelism;
+    private final long snapshotTtlMillis;
+    private final long tombstoneTtlMillis;
+    private final long valueCacheSize;
+    private final long keyFilterSize;
+
+    private RocksConfig(@NotNull final Properties properties) {
+        this.blockCacheType = properties.getProperty(PREFIX + "blockCache.type", "lru").toLowerCase(Locale.ROOT);
+        this.blockCacheSize = Long.parseLong(properties.getProperty(PREFIX + "blockCache.size", "67108864"));
+        this.bloomBitsPerKey = Double.parseDouble(properties.getProperty(PREFIX + "bloom.bitsPerKey", "10"));
+        this.cacheIndexAndFilterBlocks =
+                Boolean.parseBoolean(properties.getProperty(PREFIX + "cacheIndexAndFilterBlocks", "true"));
+        this.pinL0FilterAndIndexBlocks =
+                Boolean.parseBoolean(properties.getProperty(PREFIX + "pinL0FilterAndIndexBlocks", "true"));
+        this.blockSize = Long.parseLong(properties.getProperty(PREFIX + "blockSize", "16384"));
+        this.compressionPerLevel = parseCompression(properties.getProperty(PREFIX + "compressionPerLevel", ""));
+        this.sharedMemory = Boolean.parseBoolean(properties.getProperty(PREFIX + "sharedMemory", "true"));
+        this.writeBufferSize = Long.parseLong(properties.getProperty(PREFIX + "writeBuffer.size", "16777216"));
+        this.sync = Boolean.parseBoolean(properties.getProperty(PREFIX + "sync", "false"));
+        this.groupCommit = Boolean.parseBoolean(properties.getProperty(PREFIX + "groupCommit", "false"));
+        this.groupCommitWindowMicros =
+                Long.parseLong(properties.getProperty(PREFIX + "groupCommit.windowMicros", "0"));
+        this.scanFillCache = Boolean.parseBoolean(properties.getProperty(PREFIX + "scan.fillCache", "false"));
+        this.scanReadahead = Long.parseLong(properties.getProperty(PREFIX + "scan.readahead", "0"));
+        this.scanParallelism = Integer.parseInt(properties.getProperty(
+                PREFIX + "scan.parallelism",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        this.snapshotTtlMillis = Long.parseLong(properties.getProperty(PREFIX + "snapshot.ttlMillis", "60000"));
+        this.tombstoneTtlMillis =
+                Long.parseLong(properties.getProperty(PREFIX + "tombstone.ttlMillis", "86400000"));
+        this.valueCacheSize = Long.parseLong(properties.getProperty(PREFIX + "valueCache.size", "8388608"));
+        this.keyFilterSize = Long.parseLong(properties.getProperty(PREFIX + "keyFilter.size", "4194304"));
+
+        if (!"lru".equals(blockCacheType) && !"clock".equals(blockCacheType)) {
+            throw new IllegalArgumentException("Unknown block cache type: " + blockCacheType);
+        }
+
+        if (blockCacheSize <= 0 || blockSize <= 0 || bloomBitsPerKey < 0 || writeBufferSize <= 0
+                || groupCommitWindowMicros < 0 || scanReadahead < 0 || scanParallelism <= 0
+                || snapshotTtlMillis <= 0 || tombstoneTtlMillis < 0 || valueCacheSize < 0
+                || (valueCacheSize > 0 && valueCacheSize < OffHeapCache.MAX_VALUE_SIZE)
+                || keyFilterSize < 0 || (keyFilterSize > 0 && keyFilterSize < KeyFilter.MIN_SIZE)) {
+            throw new IllegalArgumentException("Invalid RocksDB settings");
+        }
+
+        // Memtables are charged to the shared cache, so they would leave no room for the blocks otherwise
+        if (sharedMemory && writeBufferSize >= blockCacheSize) {
+            throw new IllegalArgumentException("Write buffer must be smaller than the shared block cache");
+        }
+    }
+
+    /**
+     * Reads the settings from the configuration file and system properties.
+     */
+    @NotNull
+    public static RocksConfig load() throws IOException {
+        final Properties properties = new Properties();
+
+        final String file = System.getProperty(CONFIG_FILE);
+        if (file != null) {
+            try (InputStream input = java.nio.file.Files.newInputStream(Paths.get(file))) {
+                properties.load(input);
+            }
+        }
+
+        for (final String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PREFIX)) {
+                properties.setProperty(name, System.getProperty(name));
+            }
+        }
+
+        try {
+            return new RocksConfig(properties);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed RocksDB settings", e);
+        }
+    }
+
+    /**
+     * Builds database options.
+     *
+     * @param resources collection to put native objects to, which must be closed after the database
+     */
+    @NotNull
+    Options toOptions(@NotNull final Collection<AutoCloseable> resources) {
+        final Cache cache;
+        if (sharedMemory) {
+            cache = SharedMemory.cache(this);
+        } else {
+            cache = newCache();
+            resources.add(cache);
+        }
+
+        final BlockBasedTableConfig table = new BlockBasedTableConfig()
+                .setBlockCache(cache)
+                .setBlockSize(blockSize)
+                .setCacheIndexAndFilterBlocks(cacheIndexAndFilterBlocks)
+                .setPinL0FilterAndIndexBlocksInCache(pinL0FilterAndIndexBlocks);
+
+        if (bloomBitsPerKey > 0) {
+            final Filter filter = new BloomFilter(bloomBitsPerKey, false);
+            resources.add(filter);
+            table.setFilterPolicy(filter);
+        }
+
+        final Options options = new Options();
+        resources.add(options);
+        options.setCreateIfMissing(true);
+        options.setComparator(BuiltinComparator.BYTEWISE_COMPARATOR);
+        options.setTableFormatConfig(table);
+        if (sharedMemory) {
+            options.setWriteBufferManager(SharedMemory.writeBuffers(this));
+        }
+        if (!compressionPerLevel.isEmpty()) {
+            options.setCompressionPerLevel(compressionPerLevel);
+        }
+        return options;
+    }
+
+    @NotNull
+    Cache newCache() {
+        return "clock".equals(blockCacheType)
+                ? new ClockCache(blockCacheSize)
+                : new LRUCache(blockCacheSize);
+    }
+
+    long getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    boolean isSync() {
+        return sync;
+    }
+
+    boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    long getGroupCommitWindowMicros() {
+        return groupCommitWindowMicros;
+    }
+
+    boolean isScanFillCache() {
+        return scanFillCache;
+    }
+
+    long getScanReadahead() {
+        return scanReadahead;
+    }
+
+    int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    long getSnapshotTtlMillis() {
+        return snapshotTtlMillis;
+    }
+
+    long getTombstoneTtlMillis() {
+        return tombstoneTtlMillis;
+    }
+
+    long getValueCacheSize() {
+        return valueCacheSize;
+    }
+
+    long getKeyFilterSize() {
+        return keyFilterSize;
+    }
+
+    @NotNull
+    private static List<CompressionType> parseCompression(@NotNull final String levels) {
+        final List<CompressionType> result = new ArrayList<>();
+        for (final String level : Splitter.on(',').trimResults().omitEmptyStrings().split(levels)) {
+            try {
+                result.add(CompressionType.valueOf(level.toUpperCase(Locale.ROOT) + "_COMPRESSION"));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown compression: " + level, e);
+            }
+        }
+        return result;
+    }
+}
@@ -1,45 +1,435 @@
 package ru.mail.polis.dao;
 
+import org.rocksdb.LiveFileMetaData;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.ReadTier;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
+import org.rocksdb.Slice;
+import org.rocksdb.Snapshot;
+import org.rocksdb.Status;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.mail.polis.Record;
 import java.nio.ByteBuffer;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public final class RocksDAO implements DAO {
+    private static final int KEY_BUFFER_SIZE = 1024;
+    private static final int VALUE_BUFFER_SIZE = 64 * 1024;
+    // Readahead of full scans, which are sure to read everything sequentially
+    private static final long FULL_SCAN_READAHEAD = 2L * 1024 * 1024;
+    // Records read by all the sub-ranges of a parallel scan ahead of its consumer
+    private static final long PARALLEL_SCAN_BUFFER = 4L * 1024 * 1024;
+    private static final long SCAN_SHUTDOWN_TIMEOUT_SECONDS = 30;
+    // The message is shared, so a miss doesn't format the key
+    static final String NOT_FOUND = "Cant find element";
+
+    // Lookups pin the carrier of a virtual thread, so only about as many of them run at once as there are CPUs
+    private static final int SHARED_BUFFERS = 2 * Runtime.getRuntime().availableProcessors();
+    // Off-heap buffers reused by the lookups
+    private static final DirectBuffers KEY_BUFFERS = new DirectBuffers(KEY_BUFFER_SIZE, SHARED_BUFFERS);
+    private static final DirectBuffers VALUE_BUFFERS = new DirectBuffers(VALUE_BUFFER_SIZE, SHARED_BUFFERS);
+
     private final RocksDB db;
+    private final ReadOptions readOptions = new ReadOptions();
+    // Lookups failing with Incomplete rather than reading the files
+    private final ReadOptions cachedReadOptions = new ReadOptions().setReadTier(ReadTier.BLOCK_CACHE_TIER);
+    private final WriteOptions writeOptions;
+    private final GroupCommit groupCommit;
+    private final boolean scanFillCache;
+    private final long scanReadahead;
+    private final int scanParallelism;
+    private final ForkJoinPool scanPool;
+    private final Snapshots snapshots;
+    private final Tombstones tombstones;
+    private final Collection<AutoCloseable> resources;
+    // Scans not closed by their consumers yet, which must be closed before the database
+    private final Set<Scan> scans = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
 
-    RocksDAO(final RocksDB db) {
+    /**
+     * Wraps opened database.
+     *
+     * @param db        database
+     * @param config    settings of the database
+     * @param resources native objects the database depends on, closed along with it
+     */
+    RocksDAO(final RocksDB db,
+             final RocksConfig config,
+             final Collection<AutoCloseable> resources) {
         this.db = db;
+        this.resources = resources;
+        this.writeOptions = new WriteOptions().setSync(config.isSync());
+        this.groupCommit = config.isGroupCommit()
+                ? new GroupCommit(db, writeOptions, config.getGroupCommitWindowMicros())
+                : null;
+        this.scanFillCache = config.isScanFillCache();
+        this.scanReadahead = config.getScanReadahead();
+        this.scanParallelism = config.getScanParallelism();
+        this.scanPool = scanParallelism > 1 ? new ForkJoinPool(scanParallelism) : null;
+        this.snapshots = new Snapshots(db, config.getSnapshotTtlMillis());
+        this.tombstones = new Tombstones(
+                db,
+                writeOptions,
+                config.getTombstoneTtlMillis(),
+                scanReadahead == 0 ? FULL_SCAN_READAHEAD : scanReadahead);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) {
+        return open(ascending(from, null, false, null));
+    }
+
+    /**
+     * Stops the native iterator right at the upper bound, so RocksDB doesn't read the blocks past the range.
+     */
+    @NotNull
+    @Override
+    public CloseableIterator<Record> range(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        return isEmpty(from, to) ? Iters.empty() : open(ascending(from, to, false, null));
+    }
+
+    /**
+     * Walks the native iterator backwards from the end of the range down to the lower bound.
+     */
+    @NotNull
+    @Override
+    public CloseableIterator<Record> descendingRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        return isEmpty(from, to) ? Iters.empty() : open(descending(from, to, false, null));
+    }
+
+    /**
+     * Reads only the headers of the values to skip tombstones.
+     */
+    @NotNull
+    @Override
+    public CloseableIterator<Record> keyRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final boolean descending) {
+        if (isEmpty(from, to)) {
+            return Iters.empty();
+        }
+        return open(descending ? descending(from, to, true, null) : ascending(from, to, true, null));
+    }
+
+    /**
+     * Reads no values at all, since the tombstones aren't skipped.
+     */
+    @NotNull
+    @Override
+    public CloseableIterator<Record> writtenKeys() {
+        final ReadOptions options = scanOptions(FULL_SCAN_READAHEAD);
+        final var iterator = db.newIterator(options);
+        iterator.seekToFirst();
+        return open(new RocksRecordIterator(iterator, false, true, true, options));
     }
 
+    /**
+     * Splits the range by the first keys of the live SST files into sub-ranges of about the same
+     * amount of files and scans them in parallel from the same snapshot.
+     */
     @NotNull
     @Override
-    public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
-        final var iterator = db.newIterator();
-        iterator.seek(ByteBufferUtils.restoreByteArray(from));
-        return new RocksRecordIterator(iterator);
+    public CloseableIterator<Record> parallelRange(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        if (scanPool == null || isEmpty(from, to)) {
+            return range(from, to);
+        }
+
+        final Snapshot snapshot = db.getSnapshot();
+        return parallel(from, to, snapshot, () -> db.releaseSnapshot(snapshot));
+    }
+
+    @Override
+    public long snapshot() {
+        return snapshots.pin();
+    }
+
+    @NotNull
+    @Override
+    public DAO at(final long snapshot) {
+        if (!snapshots.contains(snapshot)) {
+            throw new NoSuchElementExceptionLite("Unknown snapshot " + snapshot);
+        }
+        return new SnapshotView(snapshot);
+    }
+
+    @NotNull
+    private CloseableIterator<Record> parallel(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            @NotNull final Snapshot snapshot,
+            @NotNull final Runnable release) {
+        final byte[] start = ByteBufferUtils.restoreByteArray(from);
+        final byte[] end = to == null ? null : ByteBufferUtils.restoreByteArray(to);
+        final List<byte[]> bounds = split(start, end);
+        final List<CloseableIterator<Record>> ranges = new ArrayList<>(bounds.size() - 1);
+        for (int i = 0; i < bounds.size() - 1; i++) {
+            ranges.add(ascending(bounds.get(i), bounds.get(i + 1), false, snapshot));
+        }
+
+        if (ranges.size() == 1) {
+            return open(Iters.onClose(ranges.get(0), release));
+        }
+        return open(new ParallelRangeIterator(scanPool, ranges, PARALLEL_SCAN_BUFFER, release));
+    }
+
+    /**
+     * Picks up to {@code scanParallelism - 1} split points inside the range.
+     *
+     * @return start, split points and end of the range in order
+     */
+    @NotNull
+    private List<byte[]> split(@NotNull final byte[] start, @Nullable final byte[] end) {
+        final List<byte[]> candidates = new ArrayList<>();
+        for (final LiveFileMetaData file : db.getLiveFilesMetaData()) {
+            final byte[] key = file.smallestKey();
+            if (Arrays.compareUnsigned(key, start) > 0 && (end == null || Arrays.compareUnsigned(key, end) < 0)) {
+                candidates.add(key);
+            }
+        }
+        candidates.sort(Arrays::compareUnsigned);
+
+        final List<byte[]> bounds = new ArrayList<>(scanParallelism + 1);
+        bounds.add(start);
+        final int parts = Math.min(scanParallelism, candidates.size() + 1);
+        for (int i = 1; i < parts; i++) {
+            final byte[] bound = candidates.get(i * candidates.size() / parts);
+            if (Arrays.compareUnsigned(bound, bounds.get(bounds.size() - 1)) > 0) {
+                bounds.add(bound);
+            }
+        }
+        bounds.add(end);
+        return bounds;
+    }
+
+    /**
+     * Hands the scan out to the consumer, so that it's closed along with the storage if the consumer hasn't yet.
+     *
+     * @throws IllegalStateException if the storage is closed
+     */
+    @NotNull
+    private CloseableIterator<Record> open(@NotNull final CloseableIterator<Record> records) {
+        final Scan scan = new Scan(records);
+        scans.add(scan);
+        if (closed) {
+            scan.close();
+            throw new IllegalStateException("Storage is closed");
+        }
+        return scan;
+    }
+
+    private static boolean isEmpty(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        return to != null && from.compareTo(to) >= 0;
+    }
+
+    @NotNull
+    private CloseableIterator<Record> ascending(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final boolean keysOnly,
+            @Nullable final Snapshot snapshot) {
+        return ascending(
+                ByteBufferUtils.restoreByteArray(from),
+                to == null ? null : ByteBufferUtils.restoreByteArray(to),
+                keysOnly,
+                snapshot);
+    }
+
+    @NotNull
+    private CloseableIterator<Record> ascending(
+            @NotNull final byte[] start,
+            @Nullable final byte[] end,
+            final boolean keysOnly,
+            @Nullable final Snapshot snapshot) {
+        if (end == null) {
+            final ReadOptions options = scanOptions(FULL_SCAN_READAHEAD).setSnapshot(snapshot);
+            final var iterator = db.newIterator(options);
+            iterator.seek(start);
+            return new RocksRecordIterator(iterator, false, keysOnly, false, options);
+        }
+
+        // RocksDB grows readahead on its own as the scan goes, which suits the short ranges too
+        final Slice upperBound = new Slice(end);
+        final ReadOptions options = scanOptions(0).setIterateUpperBound(upperBound).setSnapshot(snapshot);
+        final var iterator = db.newIterator(options);
+        iterator.seek(start);
+        return new RocksRecordIterator(iterator, false, keysOnly, false, options, upperBound);
+    }
+
+    @NotNull
+    private CloseableIterator<Record> descending(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final boolean keysOnly,
+            @Nullable final Snapshot snapshot) {
+        final Slice lowerBound = new Slice(ByteBufferUtils.restoreByteArray(from));
+        final ReadOptions options = scanOptions(0).setIterateLowerBound(lowerBound).setSnapshot(snapshot);
+        final var iterator = db.newIterator(options);
+        if (to == null) {
+            iterator.seekToLast();
+        } else {
+            final byte[] end = ByteBufferUtils.restoreByteArray(to);
+            iterator.seekForPrev(end);
+
+            // The end of the range is exclusive
+            if (iterator.isValid() && Arrays.equals(iterator.key(), end)) {
+                iterator.prev();
+            }
+        }
+        return new RocksRecordIterator(iterator, true, keysOnly, false, options, lowerBound);
+    }
+
+    /**
+     * Scans keep the block cache to the point lookups and read ahead unless configured otherwise.
+     *
+     * @param readahead readahead to use if it isn't configured
+     */
+    @NotNull
+    private ReadOptions scanOptions(final long readahead) {
+        return new ReadOptions()
+                .setFillCache(scanFillCache)
+                .setReadaheadSize(scanReadahead == 0 ? readahead : scanReadahead);
     }
 
     @NotNull
     @Override
     public ByteBuffer get(@NotNull final ByteBuffer key) throws RockException {
+        final ByteBuffer value = getIfPresent(key);
+        if (value == null) {
+            throw new NoSuchElementExceptionLite(NOT_FOUND);
+        }
+        return value;
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getIfPresent(@NotNull final ByteBuffer key) throws RockException {
+        final Value value = getTimestamped(key);
+        return value.isPresent() ? value.getData() : null;
+    }
+
+    @NotNull
+    @Override
+    public Value getTimestamped(@NotNull final ByteBuffer key) throws RockException {
         try {
-            final var result = db.get(ByteBufferUtils.restoreByteArray(key));
-            if (result == null) {
-                throw new NoSuchElementExceptionLite("Cant find element with key " + key.toString());
+            if (key.remaining() > KEY_BUFFER_SIZE) {
+                return getOnHeap(key);
+            }
+
+            final ByteBuffer rocksKey = KEY_BUFFERS.acquire();
+            if (rocksKey == null) {
+                return getOnHeap(key);
+            }
+            try {
+                final ByteBuffer raw = VALUE_BUFFERS.acquire();
+                if (raw == null) {
+                    return getOnHeap(key);
+                }
+                try {
+                    return getDirect(key, rocksKey, raw);
+                } finally {
+                    VALUE_BUFFERS.release(raw);
+                }
+            } finally {
+                KEY_BUFFERS.release(rocksKey);
             }
-            return ByteBuffer.wrap(result);
         } catch (RocksDBException exception) {
             throw new RockException("Error while get", exception);
         }
     }
 
+    @NotNull
+    private Value getDirect(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer rocksKey,
+            @NotNull final ByteBuffer raw) throws RocksDBException {
+        ByteBufferUtils.restoreInto(key, rocksKey);
+        rocksKey.flip();
+
+        final int size = db.get(readOptions, rocksKey, raw);
+        if (size == RocksDB.NOT_FOUND) {
+            return Value.absent();
+        }
+
+        // Value doesn't fit the buffer, so fall back to the allocating lookup
+        if (size > raw.capacity()) {
+            return getOnHeap(key);
+        }
+
+        return Value.deserialize(raw);
+    }
+
+    @NotNull
+    @Override
+    public List<Value> getAll(@NotNull final List<ByteBuffer> keys) throws RockException {
+        final List<byte[]> rocksKeys = new ArrayList<>(keys.size());
+        for (final ByteBuffer key : keys) {
+            rocksKeys.add(ByteBufferUtils.restoreByteArray(key));
+        }
+
+        try {
+            final List<byte[]> results = db.multiGetAsList(readOptions, rocksKeys);
+            final List<Value> values = new ArrayList<>(results.size());
+            for (final byte[] result : results) {
+                values.add(result == null ? Value.absent() : Value.deserialize(result));
+            }
+            return values;
+        } catch (RocksDBException exception) {
+            throw new RockException("Error while multi get", exception);
+        }
+    }
+
+    @NotNull
+    private Value getOnHeap(@NotNull final ByteBuffer key) throws RocksDBException {
+        final var result = db.get(ByteBufferUtils.restoreByteArray(key));
+        return result == null ? Value.absent() : Value.deserialize(result);
+    }
+
+    /**
+     * Looks the key up in the memtables and the block cache only, which is what RocksDB has in memory.
+     */
+    @Nullable
+    @Override
+    public Value getCached(@NotNull final ByteBuffer key) throws RockException {
+        try {
+            final var result = db.get(cachedReadOptions, ByteBufferUtils.restoreByteArray(key));
+            return result == null ? Value.absent() : Value.deserialize(result);
+        } catch (RocksDBException exception) {
+            final Status status = exception.getStatus();
+            if (status != null && status.getCode() == Status.Code.Incomplete) {
+                return null;
+            }
+            throw new RockException("Error while cached get", exception);
+        }
+    }
+
     @Override
     public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws RockException {
+        upsert(key, value, Value.nextTimestamp());
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long timestamp) throws RockException {
         try {
-            db.put(ByteBufferUtils.restoreByteArray(key), ByteBufferUtils.getByteArray(value));
+            put(ByteBufferUtils.restoreByteArray(key), Value.serialize(value, timestamp));
         } catch (RocksDBException exception) {
             throw new RockException("Error while upsert", exception);
         }
@@ -47,13 +437,64 @@ public final class RocksDAO implements DAO {
 
     @Override
     public void remove(@NotNull final ByteBuffer key) throws RockException {
+        remove(key, Value.nextTimestamp());
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key, final long timestamp) throws RockException {
         try {
-            db.delete(ByteBufferUtils.restoreByteArray(key));
+            put(ByteBufferUtils.restoreByteArray(key), Value.serializeTombstone(timestamp));
         } catch (RocksDBException exception) {
             throw new RockException("Error while remove", exception);
         }
     }
 
+    private void put(@NotNull final byte[] key, @NotNull final byte[] value) throws RocksDBException {
+        final Tombstones.Guard guard = tombstones.guard(key);
+        try {
+            if (groupCommit == null) {
+                db.put(writeOptions, key, value);
+            } else {
+                groupCommit.put(key, value);
+            }
+        } finally {
+            guard.release();
+        }
+    }
+
+    @Override
+    public void upsertAll(@NotNull final Batch batch) throws RockException {
+        try (WriteBatch writes = new WriteBatch()) {
+            final List<byte[]> keys = new ArrayList<>();
+            for (final Batch.Entry entry : batch) {
+                final byte[] key = ByteBufferUtils.restoreByteArray(entry.getKey());
+                keys.add(key);
+                final long timestamp = batch.getTimestamp() == Value.NO_TIMESTAMP
+                        ? Value.nextTimestamp()
+                        : batch.getTimestamp();
+                if (entry.isRemoval()) {
+                    writes.put(key, Value.serializeTombstone(timestamp));
+                } else {
+                    writes.put(key, Value.serialize(entry.getValue(), timestamp));
+                }
+            }
+            final Tombstones.Guard guard = tombstones.guard(keys);
+            try {
+                db.write(writeOptions, writes);
+            } finally {
+                guard.release();
+            }
+        } catch (RocksDBException exception) {
+            throw new RockException("Error while upsert batch", exception);
+        }
+    }
+
+    @NotNull
+    @Override
+    public String stats() {
+        return tombstones.stats();
+    }
+
     @Override
     public void compact() throws RockException {
         try {
@@ -63,13 +504,185 @@ public final class RocksDAO implements DAO {
         }
     }
 
+    /**
+     * Closes the scans left open by the consumers and waits for the sub-range tasks to stop
+     * before closing the database, so that no native iterator or snapshot outlives it.
+     */
     @Override
     public void close() throws RockException {
+        closed = true;
+        for (final Scan scan : scans) {
+            scan.close();
+        }
+
+        try {
+            if (scanPool != null) {
+                scanPool.shutdown();
+                if (!scanPool.awaitTermination(SCAN_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    // Leaking the database is better than freeing it under the running scans
+                    throw new RockException("Scans are still running", new TimeoutException());
+                }
+            }
+            snapshots.close();
+            tombstones.close();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RockException("Interrupted while waiting for scans", exception);
+        }
+
         try {
             db.syncWal();
+            readOptions.close();
+            cachedReadOptions.close();
+            writeOptions.close();
             db.closeE();
         } catch (RocksDBException exception) {
             throw new RockException("Error while close", exception);
+        } finally {
+            closeAll(resources);
+        }
+    }
+
+    /**
+     * Read only view of the pinned snapshot, which acquires the snapshot for every scan.
+     */
+    private final class SnapshotView implements DAO {
+        private final long token;
+
+        SnapshotView(final long token) {
+            this.token = token;
+        }
+
+        @NotNull
+        @Override
+        public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) {
+            final Snapshots.Lease lease = snapshots.acquire(token);
+            return pinned(lease, ascending(from, null, false, lease.getSnapshot()));
+        }
+
+        @NotNull
+        @Override
+        public CloseableIterator<Record> range(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+            if (isEmpty(from, to)) {
+                return Iters.empty();
+            }
+            final Snapshots.Lease lease = snapshots.acquire(token);
+            return pinned(lease, ascending(from, to, false, lease.getSnapshot()));
+        }
+
+        @NotNull
+        @Override
+        public CloseableIterator<Record> parallelRange(
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to) {
+            if (scanPool == null || isEmpty(from, to)) {
+                return range(from, to);
+            }
+            final Snapshots.Lease lease = snapshots.acquire(token);
+            return parallel(from, to, lease.getSnapshot(), lease::release);
+        }
+
+        @NotNull
+        @Override
+        public CloseableIterator<Record> descendingRange(
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to) {
+            if (isEmpty(from, to)) {
+                return Iters.empty();
+            }
+            final Snapshots.Lease lease = snapshots.acquire(token);
+            return pinned(lease, descending(from, to, false, lease.getSnapshot()));
+        }
+
+        @NotNull
+        @Override
+        public CloseableIterator<Record> keyRange(
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to,
+                final boolean descending) {
+            if (isEmpty(from, to)) {
+                return Iters.empty();
+            }
+            final Snapshots.Lease lease = snapshots.acquire(token);
+            final Snapshot snapshot = lease.getSnapshot();
+            return pinned(
+                    lease,
+                    descending ? descending(from, to, true, snapshot) : ascending(from, to, true, snapshot));
+        }
+
+        @NotNull
+        private CloseableIterator<Record> pinned(
+                @NotNull final Snapshots.Lease lease,
+                @NotNull final CloseableIterator<Record> records) {
+            return open(Iters.onClose(records, lease::release));
+        }
+
+        @Override
+        public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+            throw new UnsupportedOperationException("Snapshot is read only");
+        }
+
+        @Override
+        public void remove(@NotNull final ByteBuffer key) {
+            throw new UnsupportedOperationException("Snapshot is read only");
+        }
+
+        @Override
+        public void close() {
+            // The snapshot is released by the registry
+        }
+    }
+
+    /**
+     * Scan handed out to a consumer. The storage may close it from another thread, so the access is synchronized.
+     */
+    private final class Scan implements CloseableIterator<Record> {
+        private final CloseableIterator<Record> records;
+        private boolean closed;
+
+        Scan(@NotNull final CloseableIterator<Record> records) {
+            this.records = records;
+        }
+
+        @Override
+        public synchronized boolean hasNext() {
+            return !closed && records.hasNext();
+        }
+
+        @Override
+        public synchronized Record next() throws IllegalStateException {
+            if (closed) {
+                throw new IllegalStateException("Scan is closed");
+            }
+            return records.next();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                scans.remove(this);
+                records.close();
+            }
+        }
+    }
+
+    static void closeAll(@NotNull final Collection<AutoCloseable> resources) throws RockException {
+        RockException failure = null;
+        for (final AutoCloseable resource : resources) {
+            try {
+                resource.close();
+            } catch (Exception exception) {
+                if (failure == null) {
+                    failure = new RockException("Error while releasing resources", exception);
+                } else {
+                    failure.addSuppressed(exception);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
         }
     }
 }
@@ -1,23 +1,59 @@
 package ru.mail.polis.dao;
 
 import org.jetbrains.annotations.NotNull;
+import org.rocksdb.AbstractNativeReference;
 import org.rocksdb.RocksIterator;
 import ru.mail.polis.Record;
 
 import java.nio.ByteBuffer;
-import java.util.Iterator;
 
-public class RocksRecordIterator implements Iterator<Record>, AutoCloseable {
+/**
+ * Iterator over live records of RocksDB in either direction,
+ * which releases the native iterator as soon as it is exhausted.
+ *
+ * <p>In keys only mode records come with empty values and only the headers of the values are copied
+ * out of the native iterator, unless the removed keys are kept too and no value is read at all.
+ */
+public class RocksRecordIterator implements CloseableIterator<Record> {
+    private static final ByteBuffer NO_VALUE = ByteBuffer.allocate(0);
 
     private final RocksIterator iterator;
+    private final boolean descending;
+    // Value header of the current record, if the values aren't needed
+    private final ByteBuffer header;
+    private final boolean tombstones;
+    private final AbstractNativeReference[] resources;
+    private byte[] value;
+    private boolean closed;
 
-    RocksRecordIterator(@NotNull final RocksIterator iterator) {
+    /**
+     * Wraps positioned iterator.
+     *
+     * @param iterator   native iterator
+     * @param descending whether to move the iterator backwards
+     * @param keysOnly   whether to skip the values
+     * @param tombstones whether to keep the removed keys, which is allowed in keys only mode
+     * @param resources  native objects the iterator depends on, released right after it
+     */
+    RocksRecordIterator(@NotNull final RocksIterator iterator,
+                        final boolean descending,
+                        final boolean keysOnly,
+                        final boolean tombstones,
+                        @NotNull final AbstractNativeReference... resources) {
+        if (tombstones && !keysOnly) {
+            throw new IllegalArgumentException("Removed keys have no values");
+        }
         this.iterator = iterator;
+        this.descending = descending;
+        this.header = keysOnly ? ByteBuffer.allocateDirect(Value.HEADER_SIZE) : null;
+        this.tombstones = tombstones;
+        this.resources = resources;
+        skipTombstones();
     }
 
     @Override
     public boolean hasNext() {
-        return iterator.isValid();
+        return !closed && iterator.isValid();
     }
 
     @Override
@@ -26,14 +62,49 @@ public class RocksRecordIterator implements Iterator<Record>, AutoCloseable {
             throw new IllegalStateException("Iterator is exhausted");
         }
         final ByteBuffer key = ByteBufferUtils.shiftByteArray(iterator.key());
-        final ByteBuffer value = ByteBuffer.wrap(iterator.value());
-        final Record record = Record.of(key, value);
-        iterator.next();
+        final Record record = Record.of(key, header == null ? Value.dataOf(value) : NO_VALUE);
+        advance();
+        skipTombstones();
         return record;
     }
 
+    private void skipTombstones() {
+        while (iterator.isValid()) {
+            if (header == null) {
+                value = iterator.value();
+                if (!Value.isTombstone(value)) {
+                    return;
+                }
+            } else if (tombstones) {
+                return;
+            } else {
+                iterator.value(header.clear());
+                if (!Value.isTombstone(header)) {
+                    return;
+                }
+            }
+            advance();
+        }
+        close();
+    }
+
+    private void advance() {
+        if (descending) {
+            iterator.prev();
+        } else {
+            iterator.next();
+        }
+    }
+
     @Override
     public void close() {
-        iterator.close();
+        if (!closed) {
+            closed = true;
+            value = null;
+            iterator.close();
+            for (final AbstractNativeReference resource : resources) {
+                resource.close();
+            }
+        }
     }
 }
@@ -0,0 +1,36 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.rocksdb.Cache;
+import org.rocksdb.WriteBufferManager;
+
+/**
+ * Process-wide block cache and memtable budget shared by all the storages of the JVM.
+ *
+ * <p>Created on the first request with its settings and never released.
+ */
+final class SharedMemory {
+    private static Cache cache;
+    private static WriteBufferManager writeBuffers;
+
+    private SharedMemory() {
+        // Not instantiable
+    }
+
+    @NotNull
+    static synchronized Cache cache(@NotNull final RocksConfig config) {
+        if (cache == null) {
+            cache = config.newCache();
+        }
+        return cache;
+    }
+
+    @NotNull
+    static synchronized WriteBufferManager writeBuffers(@NotNull final RocksConfig config) {
+        if (writeBuffers == null) {
+            // Memtables are charged to the block cache, so both fit the single budget
+            writeBuffers = new WriteBufferManager(config.getWriteBufferSize(), cache(config));
+        }
+        return writeBuffers;
+    }
+}
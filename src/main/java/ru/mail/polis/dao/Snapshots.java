@@ -0,0 +1,143 @@
+package ru.mail.polis.dao;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.rocksdb.RocksDB;
+import org.rocksdb.Snapshot;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snapshots of RocksDB pinned for the reads of later requests by tokens.
+ *
+ * <p>A snapshot is held by the registry until it isn't used for the time to live and by every scan reading it,
+ * so it's released once it has expired and the last scan is closed. Expired snapshots are dropped
+ * whenever a snapshot is pinned or acquired and by the background sweep, so the idle storage doesn't keep
+ * them either.
+ */
+final class Snapshots {
+    private final RocksDB db;
+    private final long ttlNanos;
+    private final AtomicLong lastToken = new AtomicLong();
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+    private final ScheduledFuture<?> sweep;
+
+    /**
+     * Creates empty registry.
+     *
+     * @param db        database to take the snapshots of
+     * @param ttlMillis time for a snapshot to live after its last use
+     */
+    Snapshots(@NotNull final RocksDB db, final long ttlMillis) {
+        this.db = db;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("snapshot-sweeper").setDaemon(true).build());
+        // Snapshots outlive their time to live by half of it at most
+        final long period = Math.max(1, ttlMillis / 2);
+        this.sweep = sweeper.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pins the current state of the database.
+     *
+     * @return token to acquire the snapshot by
+     */
+    long pin() {
+        expire();
+        final long token = lastToken.incrementAndGet();
+        leases.put(token, new Lease(db.getSnapshot()));
+        return token;
+    }
+
+    /**
+     * Takes the snapshot for a read, which must be released once done.
+     *
+     * @throws NoSuchElementExceptionLite if the snapshot is unknown or has already expired
+     */
+    @NotNull
+    Lease acquire(final long token) {
+        expire();
+        final Lease lease = leases.get(token);
+        if (lease == null || !lease.retain()) {
+            throw new NoSuchElementExceptionLite("Unknown snapshot " + token);
+        }
+        lease.expiresAt = System.nanoTime() + ttlNanos;
+        return lease;
+    }
+
+    /**
+     * Checks that the snapshot is known and hasn't expired.
+     */
+    boolean contains(final long token) {
+        expire();
+        return leases.containsKey(token);
+    }
+
+    /**
+     * Stops the sweep and drops all the snapshots, which are released as soon as their scans are closed.
+     */
+    void close() throws InterruptedException {
+        sweep.cancel(false);
+        sweeper.shutdown();
+        sweeper.awaitTermination(1, TimeUnit.MINUTES);
+        for (final Map.Entry<Long, Lease> entry : leases.entrySet()) {
+            if (leases.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().release();
+            }
+        }
+    }
+
+    private void expire() {
+        final long now = System.nanoTime();
+        for (final Map.Entry<Long, Lease> entry : leases.entrySet()) {
+            final Lease lease = entry.getValue();
+            if (now - lease.expiresAt > 0 && leases.remove(entry.getKey(), lease)) {
+                lease.release();
+            }
+        }
+    }
+
+    final class Lease {
+        private final Snapshot snapshot;
+        // The registry holds a reference until the snapshot expires
+        private final AtomicInteger references = new AtomicInteger(1);
+        private volatile long expiresAt;
+
+        private Lease(@NotNull final Snapshot snapshot) {
+            this.snapshot = snapshot;
+            this.expiresAt = System.nanoTime() + ttlNanos;
+        }
+
+        @NotNull
+        Snapshot getSnapshot() {
+            return snapshot;
+        }
+
+        private boolean retain() {
+            while (true) {
+                final int current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                db.releaseSnapshot(snapshot);
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package ru.mail.polis.dao;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteOptions;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Purges the tombstones of the removals older than the grace period, which RocksDB would keep forever.
+ *
+ * <p>A tombstone lets the replicas tell a removal from a stale value of a replica that has missed it.
+ * Once the tombstone is purged, the key reads as never written, so the stale value wins again. The grace
+ * period must therefore exceed the time a replica may stay out of date. The cluster has no repair, so a
+ * replica which has missed a removal for longer than that brings the removed value back.
+ *
+ * <p>The whole database is scanned in the background twice per grace period, so a tombstone lives up to
+ * one and a half grace periods. Writes hold the stripes of their keys for reading, and a tombstone is re-read
+ * and deleted under the write lock of its stripe, so a value written concurrently is never deleted instead.
+ */
+final class Tombstones {
+    private static final int STRIPES = Long.SIZE;
+    private static final Guard NO_GUARD = new Guard(new ReadWriteLock[0], 0L);
+
+    private final RocksDB db;
+    private final WriteOptions options;
+    private final long ttlMicros;
+    private final long readahead;
+    private final ReadWriteLock[] stripes;
+    @Nullable
+    private final ScheduledExecutorService purger;
+    @Nullable
+    private final ScheduledFuture<?> purge;
+    private final LongAdder purged = new LongAdder();
+    private volatile RocksDBException failure;
+    private volatile boolean closed;
+
+    /**
+     * Starts the purge.
+     *
+     * @param db        database to purge
+     * @param options   options of the deletes
+     * @param ttlMillis grace period of the tombstones, {@code 0} keeps them forever
+     * @param readahead readahead of the scans looking for the tombstones
+     */
+    Tombstones(@NotNull final RocksDB db,
+               @NotNull final WriteOptions options,
+               final long ttlMillis,
+               final long readahead) {
+        this.db = db;
+        this.options = options;
+        // Write timestamps are in microseconds
+        this.ttlMicros = TimeUnit.MILLISECONDS.toMicros(ttlMillis);
+        this.readahead = readahead;
+        if (ttlMillis == 0) {
+            this.stripes = new ReadWriteLock[0];
+            this.purger = null;
+            this.purge = null;
+            return;
+        }
+
+        this.stripes = new ReadWriteLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.purger = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("tombstone-purger").setDaemon(true).build());
+        final long period = Math.max(1, ttlMillis / 2);
+        this.purge = purger.scheduleWithFixedDelay(this::purge, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Keeps the purge off the key until the write is done.
+     *
+     * @return guard to release once the key is written
+     */
+    @NotNull
+    Guard guard(@NotNull final byte[] key) {
+        return stripes.length == 0 ? NO_GUARD : lock(1L << stripe(key));
+    }
+
+    /**
+     * Keeps the purge off all the keys until the write is done.
+     *
+     * @return guard to release once the keys are written
+     */
+    @NotNull
+    Guard guard(@NotNull final List<byte[]> keys) {
+        if (stripes.length == 0) {
+            return NO_GUARD;
+        }
+
+        long mask = 0L;
+        for (final byte[] key : keys) {
+            mask |= 1L << stripe(key);
+        }
+        return lock(mask);
+    }
+
+    /**
+     * Deletes all the tombstones older than the grace period.
+     */
+    void purge() {
+        final long expiredBefore = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()) - ttlMicros;
+        final ByteBuffer header = ByteBuffer.allocateDirect(Value.HEADER_SIZE);
+        try (ReadOptions scan = new ReadOptions().setFillCache(false).setReadaheadSize(readahead);
+             RocksIterator iterator = db.newIterator(scan)) {
+            for (iterator.seekToFirst(); iterator.isValid() && !closed; iterator.next()) {
+                header.clear();
+                iterator.value(header);
+                if (Value.isTombstone(header) && header.getLong(0) < expiredBefore) {
+                    delete(iterator.key(), header.getLong(0));
+                }
+            }
+        } catch (RocksDBException exception) {
+            // The next run starts over
+            failure = exception;
+        }
+    }
+
+    private void delete(
+            @NotNull final byte[] key,
+            final long timestamp) throws RocksDBException {
+        final ReadWriteLock stripe = stripes[stripe(key)];
+        stripe.writeLock().lock();
+        try {
+            // The key might have been written since the scan has read it
+            final byte[] current = db.get(key);
+            if (current != null && Value.isTombstone(current) && ByteBuffer.wrap(current).getLong() == timestamp) {
+                db.delete(options, key);
+                purged.increment();
+            }
+        } finally {
+            stripe.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Describes the purge.
+     */
+    @NotNull
+    String stats() {
+        final RocksDBException lastFailure = failure;
+        return "tombstonesPurged=" + purged.sum()
+                + (lastFailure == null ? "" : "\ntombstonePurgeFailure=" + lastFailure)
+                + '\n';
+    }
+
+    /**
+     * Stops the purge, which must be done before the database is closed.
+     */
+    void close() throws InterruptedException {
+        closed = true;
+        if (purger != null) {
+            purge.cancel(false);
+            purger.shutdown();
+            purger.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @NotNull
+    private Guard lock(final long mask) {
+        // Stripes are always locked in the same order
+        for (int i = 0; i < STRIPES; i++) {
+            if ((mask & (1L << i)) != 0) {
+                stripes[i].readLock().lock();
+            }
+        }
+        return new Guard(stripes, mask);
+    }
+
+    private static int stripe(@NotNull final byte[] key) {
+        return (Arrays.hashCode(key) & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    /**
+     * Stripes locked by a write.
+     */
+    static final class Guard {
+        private final ReadWriteLock[] stripes;
+        private final long mask;
+
+        private Guard(@NotNull final ReadWriteLock[] stripes, final long mask) {
+            this.stripes = stripes;
+            this.mask = mask;
+        }
+
+        void release() {
+            for (int i = 0; i < stripes.length; i++) {
+                if ((mask & (1L << i)) != 0) {
+                    stripes[i].readLock().unlock();
+                }
+            }
+        }
+    }
+}
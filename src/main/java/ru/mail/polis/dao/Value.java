@@ -0,0 +1,184 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stored value along with its metadata: write timestamp and tombstone flag.
+ *
+ * <p>On disk it is represented as {@code <timestamp:8><flags:1><data>}.
+ */
+public final class Value {
+    /**
+     * Timestamp of the values which were never written.
+     */
+    public static final long NO_TIMESTAMP = -1L;
+
+    static final int HEADER_SIZE = Long.BYTES + Byte.BYTES;
+
+    private static final byte TOMBSTONE = 1;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final Value ABSENT = new Value(NO_TIMESTAMP, false, EMPTY);
+    private static final AtomicLong LAST_TIMESTAMP = new AtomicLong();
+
+    private final long timestamp;
+    private final boolean tombstone;
+    private final ByteBuffer data;
+
+    private Value(final long timestamp,
+                  final boolean tombstone,
+                  @NotNull final ByteBuffer data) {
+        this.timestamp = timestamp;
+        this.tombstone = tombstone;
+        this.data = data;
+    }
+
+    @NotNull
+    public static Value present(@NotNull final ByteBuffer data, final long timestamp) {
+        return new Value(timestamp, false, data);
+    }
+
+    @NotNull
+    public static Value tombstone(final long timestamp) {
+        return new Value(timestamp, true, EMPTY);
+    }
+
+    @NotNull
+    public static Value absent() {
+        return ABSENT;
+    }
+
+    public boolean isPresent() {
+        return !tombstone && this != ABSENT;
+    }
+
+    public boolean isTombstone() {
+        return tombstone;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Provides the data of the present value.
+     *
+     * @throws NoSuchElementException if value is either absent or removed
+     */
+    @NotNull
+    public ByteBuffer getData() {
+        if (!isPresent()) {
+            throw new NoSuchElementExceptionLite("Value is not present");
+        }
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Provides the data of the present value as an array, avoiding the copy when possible.
+     * N.B. The array must not be modified.
+     *
+     * @throws NoSuchElementException if value is either absent or removed
+     */
+    @NotNull
+    public byte[] toByteArray() {
+        if (!isPresent()) {
+            throw new NoSuchElementExceptionLite("Value is not present");
+        }
+
+        if (data.hasArray()
+                && data.arrayOffset() == 0
+                && data.position() == 0
+                && data.remaining() == data.array().length) {
+            return data.array();
+        }
+        return ByteBufferUtils.getByteArray(data);
+    }
+
+    /**
+     * Provides strictly increasing timestamps within the process.
+     * The coordinator of a replicated write picks one for all the replicas, so that they store the same.
+     */
+    public static long nextTimestamp() {
+        final long now = System.currentTimeMillis() * 1000L;
+        return LAST_TIMESTAMP.accumulateAndGet(now, (last, current) -> current > last ? current : last + 1);
+    }
+
+    /**
+     * Serializes data along with the header.
+     */
+    @NotNull
+    static byte[] serialize(@NotNull final ByteBuffer data, final long timestamp) {
+        final ByteBuffer duplicate = data.duplicate();
+        final byte[] raw = new byte[HEADER_SIZE + duplicate.remaining()];
+        ByteBuffer.wrap(raw)
+                .putLong(timestamp)
+                .put((byte) 0)
+                .put(duplicate);
+        return raw;
+    }
+
+    /**
+     * Serializes tombstone header.
+     */
+    @NotNull
+    static byte[] serializeTombstone(final long timestamp) {
+        final byte[] raw = new byte[HEADER_SIZE];
+        ByteBuffer.wrap(raw)
+                .putLong(timestamp)
+                .put(TOMBSTONE);
+        return raw;
+    }
+
+    /**
+     * Checks whether serialized value is a tombstone.
+     */
+    static boolean isTombstone(@NotNull final byte[] raw) {
+        return raw[Long.BYTES] == TOMBSTONE;
+    }
+
+    /**
+     * Checks serialized representation starting at the position of the buffer, which may hold the header only.
+     */
+    static boolean isTombstone(@NotNull final ByteBuffer raw) {
+        return raw.get(raw.position() + Long.BYTES) == TOMBSTONE;
+    }
+
+    /**
+     * Restores value from serialized representation without copying the data.
+     */
+    @NotNull
+    static Value deserialize(@NotNull final byte[] raw) {
+        final long timestamp = ByteBuffer.wrap(raw).getLong();
+        if (isTombstone(raw)) {
+            return tombstone(timestamp);
+        }
+        return present(dataOf(raw), timestamp);
+    }
+
+    /**
+     * Restores value from serialized representation in (possibly direct) buffer copying the data to heap.
+     */
+    @NotNull
+    static Value deserialize(@NotNull final ByteBuffer raw) {
+        final int start = raw.position();
+        final long timestamp = raw.getLong(start);
+        if (raw.get(start + Long.BYTES) == TOMBSTONE) {
+            return tombstone(timestamp);
+        }
+
+        final byte[] data = new byte[raw.remaining() - HEADER_SIZE];
+        raw.duplicate().position(start + HEADER_SIZE).get(data);
+        return present(ByteBuffer.wrap(data), timestamp);
+    }
+
+    /**
+     * Extracts data from serialized representation without copying.
+     */
+    @NotNull
+    static ByteBuffer dataOf(@NotNull final byte[] raw) {
+        return ByteBuffer.wrap(raw, HEADER_SIZE, raw.length - HEADER_SIZE).slice();
+    }
+}
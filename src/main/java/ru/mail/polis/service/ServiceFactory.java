@@ -17,15 +17,20 @@
 package ru.mail.polis.service;
 
 import java.io.IOException;
+import java.util.Locale;
 import java.util.Set;
 
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import one.nio.net.ConnectionString;
 import org.jetbrains.annotations.NotNull;
 import ru.mail.polis.dao.DAO;
+import ru.mail.polis.service.dogm.ConsistentHashTopology;
 import ru.mail.polis.service.dogm.ServiceImpl;
+import ru.mail.polis.service.dogm.Topology;
+import ru.mail.polis.service.dogm.VirtualWorkers;
+import ru.mail.polis.service.dogm.WorkerPool;
 
 /**
  * Constructs {@link Service} instances.
@@ -34,6 +39,18 @@ import ru.mail.polis.service.dogm.ServiceImpl;
  */
 public final class ServiceFactory {
     private static final long MAX_HEAP = 256 * 1024 * 1024;
+    private static final int VIRTUAL_NODES = 64;
+    private static final int QUEUE_SIZE = Integer.getInteger("dht.workers.queueSize", 1024);
+    // Requests waiting longer are dropped, as their clients have most probably given up
+    private static final long DEADLINE_MILLIS = Long.getLong("dht.workers.deadlineMillis", 1000L);
+    private static final String REJECTION = System.getProperty("dht.workers.rejection", "newest");
+    // Either the fixed pool of platform threads or a virtual thread per request
+    private static final String MODE = System.getProperty("dht.workers.mode", "pool");
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("dht.workers.maxInFlight", 10_000);
+    // Every request to another node holds its proxy until the node answers or the timeout expires
+    private static final int PROXIES = Integer.getInteger(
+            "dht.proxies.threads",
+            2 * Runtime.getRuntime().availableProcessors());
 
     private ServiceFactory() {
         // Not supposed to be instantiated
@@ -56,11 +73,61 @@ public final class ServiceFactory {
             throw new IllegalStateException("The heap is too big. Consider setting Xmx.");
         }
 
-        final Executor executor =
-                Executors.newFixedThreadPool(
-                    Runtime.getRuntime().availableProcessors(),
-                    new ThreadFactoryBuilder().setNameFormat("worker").build());
+        final Executor executor = createWorkers();
+        final Executor proxies = createProxies(executor);
 
-        return new ServiceImpl(port, dao, executor);
+        final Topology nodes = new ConsistentHashTopology(topology, findMe(port, topology), VIRTUAL_NODES);
+
+        return new ServiceImpl(port, dao, executor, proxies, nodes);
+    }
+
+    @NotNull
+    private static Executor createWorkers() {
+        switch (MODE.toLowerCase(Locale.ROOT)) {
+            case "pool":
+                return new WorkerPool(
+                        Runtime.getRuntime().availableProcessors(),
+                        QUEUE_SIZE,
+                        DEADLINE_MILLIS,
+                        WorkerPool.Rejection.valueOf(REJECTION.toUpperCase(Locale.ROOT)),
+                        new ThreadFactoryBuilder().setNameFormat("worker").build());
+
+            case "virtual":
+                return VirtualWorkers.create(MAX_IN_FLIGHT);
+
+            default:
+                throw new IllegalArgumentException("Unknown workers mode: " + MODE);
+        }
+    }
+
+    /**
+     * Creates the executor for the requests to the other nodes, bounded the same way as the workers.
+     * Virtual threads don't hold the platform ones while waiting for the node, so they are shared.
+     */
+    @NotNull
+    private static Executor createProxies(@NotNull final Executor workers) {
+        if (workers instanceof VirtualWorkers) {
+            return workers;
+        }
+
+        return new WorkerPool(
+                PROXIES,
+                QUEUE_SIZE,
+                DEADLINE_MILLIS,
+                WorkerPool.Rejection.valueOf(REJECTION.toUpperCase(Locale.ROOT)),
+                new ThreadFactoryBuilder().setNameFormat("proxy").build());
+    }
+
+    @NotNull
+    private static String findMe(
+            final int port,
+            @NotNull final Set<String> topology) {
+        for (final String node : topology) {
+            if (new ConnectionString(node).getPort() == port) {
+                return node;
+            }
+        }
+
+        throw new IllegalArgumentException("No node with port " + port + " in the topology");
     }
 }
@@ -0,0 +1,95 @@
+package ru.mail.polis.service.dogm;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.Batch;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary representation of {@link Batch} used as a request body.
+ *
+ * <p>Body is a sequence of {@code <key length:4><key><value length:4><value>} entries
+ * with big-endian lengths, where value length {@code -1} (and no value) denotes removal.
+ */
+final class BatchCodec {
+    private static final int REMOVAL = -1;
+
+    private BatchCodec() {
+        // Not instantiable
+    }
+
+    /**
+     * Parses batch without copying the entries.
+     *
+     * @param body      serialized entries
+     * @param timestamp write timestamp of the entries
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static Batch decode(
+            @NotNull final byte[] body,
+            final long timestamp) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final Batch batch = new Batch(timestamp);
+        try {
+            while (buffer.hasRemaining()) {
+                final ByteBuffer key = slice(buffer, buffer.getInt());
+                if (!key.hasRemaining()) {
+                    throw new IllegalArgumentException("Empty key");
+                }
+
+                final int valueLength = buffer.getInt();
+                if (valueLength == REMOVAL) {
+                    batch.remove(key);
+                } else {
+                    batch.upsert(key, slice(buffer, valueLength));
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch", e);
+        }
+        return batch;
+    }
+
+    /**
+     * Serializes batch.
+     */
+    @NotNull
+    static byte[] encode(@NotNull final Batch batch) {
+        int size = 0;
+        for (final Batch.Entry entry : batch) {
+            size += 2 * Integer.BYTES + entry.getKey().remaining();
+            if (!entry.isRemoval()) {
+                size += entry.getValue().remaining();
+            }
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (final Batch.Entry entry : batch) {
+            final ByteBuffer key = entry.getKey();
+            buffer.putInt(key.remaining()).put(key);
+            if (entry.isRemoval()) {
+                buffer.putInt(REMOVAL);
+            } else {
+                final ByteBuffer value = entry.getValue();
+                buffer.putInt(value.remaining()).put(value);
+            }
+        }
+        return buffer.array();
+    }
+
+    @NotNull
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer buffer,
+            final int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid length " + length);
+        }
+
+        final ByteBuffer result = buffer.slice();
+        result.limit(length);
+        buffer.position(buffer.position() + length);
+        return result;
+    }
+}
@@ -0,0 +1,111 @@
+package ru.mail.polis.service.dogm;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Consistent hashing ring with virtual nodes.
+ */
+public final class ConsistentHashTopology implements Topology {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final String me;
+    private final Set<String> nodes;
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * Builds the ring placing each node at several pseudo-random points.
+     *
+     * @param nodes        all the nodes of the cluster
+     * @param me           current node
+     * @param virtualNodes amount of points per node on the ring
+     */
+    public ConsistentHashTopology(@NotNull final Set<String> nodes,
+                                  @NotNull final String me,
+                                  final int virtualNodes) {
+        if (!nodes.contains(me)) {
+            throw new IllegalArgumentException("Current node is not a part of the topology: " + me);
+        }
+
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Invalid amount of virtual nodes: " + virtualNodes);
+        }
+
+        this.me = me;
+        this.nodes = Collections.unmodifiableSet(nodes);
+
+        for (final String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + '#' + i), node);
+            }
+        }
+    }
+
+    @Override
+    public boolean isMe(@NotNull final String node) {
+        return me.equals(node);
+    }
+
+    @NotNull
+    @Override
+    public String primaryFor(@NotNull final ByteBuffer key) {
+        final Map.Entry<Long, String> owner = ring.ceilingEntry(token(key));
+        return owner == null ? ring.firstEntry().getValue() : owner.getValue();
+    }
+
+    @NotNull
+    @Override
+    public List<String> replicasFor(@NotNull final ByteBuffer key, final int count) {
+        if (count <= 0 || count > nodes.size()) {
+            throw new IllegalArgumentException("Invalid amount of replicas: " + count);
+        }
+
+        // Walk the ring clockwise starting from the key position
+        final long token = token(key);
+        final List<String> replicas = new ArrayList<>(count);
+        collect(ring.tailMap(token, true), replicas, count);
+        collect(ring.headMap(token, false), replicas, count);
+        return replicas;
+    }
+
+    @NotNull
+    @Override
+    public Set<String> all() {
+        return nodes;
+    }
+
+    private static void collect(
+            @NotNull final Map<Long, String> points,
+            @NotNull final List<String> replicas,
+            final int count) {
+        for (final String node : points.values()) {
+            if (replicas.size() == count) {
+                return;
+            }
+
+            if (!replicas.contains(node)) {
+                replicas.add(node);
+            }
+        }
+    }
+
+    private static long token(@NotNull final ByteBuffer key) {
+        return HASH.newHasher().putBytes(key.duplicate()).hash().asLong();
+    }
+
+    private static long hash(@NotNull final String point) {
+        return HASH.hashString(point, UTF_8).asLong();
+    }
+}
@@ -0,0 +1,441 @@
+package ru.mail.polis.service.dogm;
+
+import one.nio.http.HttpClient;
+import one.nio.http.HttpException;
+import one.nio.http.Request;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import one.nio.pool.PoolException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.Batch;
+import ru.mail.polis.dao.Value;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Fans requests out to the replicas and gathers their answers.
+ *
+ * <p>The local replica is served by the workers. Requests to the other nodes are sent by the proxies, which
+ * block until the node answers or the timeout expires, so a slow node doesn't occupy the workers.
+ */
+final class Coordinator implements Closeable {
+    /**
+     * Header marking requests sent by another node of the cluster to be served locally.
+     */
+    static final String PROXY_HEADER = "X-OK-Proxy";
+
+    /**
+     * Header carrying write timestamp of the value served by replica
+     * or the one chosen by the coordinator for the write sent to replica.
+     */
+    static final String TIMESTAMP_HEADER = "X-OK-Timestamp";
+
+    private static final String PROXY_HEADER_LINE = PROXY_HEADER + ": True";
+    private static final int PROXY_TIMEOUT = 500;
+
+    private final Topology topology;
+    private final Executor workers;
+    private final Executor proxies;
+    private final Map<String, HttpClient> clients = new HashMap<>();
+
+    /**
+     * Creates coordinator of the requests.
+     *
+     * @param topology nodes of the cluster
+     * @param workers  executor serving the requests locally
+     * @param proxies  executor sending the requests to the other nodes
+     */
+    Coordinator(@NotNull final Topology topology,
+                @NotNull final Executor workers,
+                @NotNull final Executor proxies) {
+        this.topology = topology;
+        this.workers = workers;
+        this.proxies = proxies;
+
+        for (final String node : topology.all()) {
+            if (!topology.isMe(node)) {
+                clients.put(node, new HttpClient(new ConnectionString(node + "?timeout=" + PROXY_TIMEOUT)));
+            }
+        }
+    }
+
+    /**
+     * Sends request to all the given replicas in parallel and completes as soon as {@code ack} of them answer.
+     *
+     * @param nodes     replicas to send the request to
+     * @param ack       amount of successful answers to wait for
+     * @param accepted  statuses of the answers counted as successful
+     * @param request   original client request
+     * @param timestamp write timestamp to send to the replicas or {@link Value#NO_TIMESTAMP} for the reads
+     * @param local     action serving the request at the current node
+     * @param merger    function reducing replica answers to the single response
+     */
+    @NotNull
+    CompletableFuture<Response> replicate(
+            @NotNull final List<String> nodes,
+            final int ack,
+            @NotNull final Set<Integer> accepted,
+            @NotNull final Request request,
+            final long timestamp,
+            @NotNull final ServiceImpl.Action local,
+            @NotNull final Function<List<Response>, Response> merger) {
+        final List<CompletableFuture<Response>> answers = new ArrayList<>(nodes.size());
+        for (final String node : nodes) {
+            if (topology.isMe(node)) {
+                answers.add(submit(workers, local));
+            } else {
+                answers.add(submit(
+                        proxies,
+                        () -> forward(node, request.getMethod(), request.getURI(), request.getBody(), timestamp)));
+            }
+        }
+
+        return atLeast(ack, accepted, answers).thenApply(merger);
+    }
+
+    /**
+     * Splits the batch by replicas of its entries and sends the parts to all the nodes in parallel.
+     * Completes successfully as soon as every entry is acknowledged by at least {@code ack} replicas
+     * with the accepted answers and fails as soon as some entry can't be acknowledged anymore.
+     *
+     * @param batch    changes to apply
+     * @param factor   replication factor of every entry
+     * @param accepted statuses of the answers counted as successful
+     * @param uri      URI to send the parts to
+     * @param local    action applying the part at the current node
+     */
+    @NotNull
+    @SuppressWarnings("FutureReturnValueIgnored")
+    CompletableFuture<Response> replicateBatch(
+            @NotNull final Batch batch,
+            @NotNull final ReplicationFactor factor,
+            @NotNull final Set<Integer> accepted,
+            @NotNull final String uri,
+            @NotNull final Function<Batch, ServiceImpl.Action> local) {
+        final List<Batch.Entry> changes = new ArrayList<>(batch.size());
+        final List<ByteBuffer> keys = new ArrayList<>(batch.size());
+        for (final Batch.Entry entry : batch) {
+            changes.add(entry);
+            keys.add(entry.getKey());
+        }
+
+        final Response created = new Response(Response.CREATED, Response.EMPTY);
+        if (batch.isEmpty()) {
+            return CompletableFuture.completedFuture(created);
+        }
+
+        final Map<String, List<Integer>> placement = placement(keys, factor.getFrom());
+        final ItemQuorum quorum = new ItemQuorum(batch.size(), factor);
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        for (final Map.Entry<String, List<Integer>> entries : placement.entrySet()) {
+            final String node = entries.getKey();
+            final Batch part = new Batch(batch.getTimestamp());
+            for (final int i : entries.getValue()) {
+                final Batch.Entry change = changes.get(i);
+                if (change.isRemoval()) {
+                    part.remove(change.getKey());
+                } else {
+                    part.upsert(change.getKey(), change.getValue());
+                }
+            }
+
+            final CompletableFuture<Response> answer = topology.isMe(node)
+                    ? submit(workers, local.apply(part))
+                    : submit(
+                            proxies,
+                            () -> forward(node, Request.METHOD_PUT, uri, BatchCodec.encode(part), part.getTimestamp()));
+            answer.whenComplete((response, error) -> {
+                final boolean success = error == null && accepted.contains(response.getStatus());
+                synchronized (quorum) {
+                    if (success) {
+                        if (quorum.succeeded(entries.getValue())) {
+                            result.complete(created);
+                        }
+                        return;
+                    }
+
+                    final Exception failure = quorum.failed(entries.getValue(), isOverloaded(response, error));
+                    if (failure != null) {
+                        result.completeExceptionally(failure);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Asks the replicas of every key for its value in parallel and picks the most recent answer.
+     * Completes successfully as soon as every key is answered by at least {@code ack} replicas
+     * and fails as soon as some key can't be answered anymore.
+     *
+     * @param keys     keys to look up
+     * @param factor   replication factor of every key
+     * @param accepted statuses of the answers carrying the values
+     * @param uri      URI to send the parts to
+     * @param local    action looking up the part at the current node
+     * @return values in the order of the keys
+     */
+    @NotNull
+    @SuppressWarnings("FutureReturnValueIgnored")
+    CompletableFuture<List<Value>> replicateGetAll(
+            @NotNull final List<ByteBuffer> keys,
+            @NotNull final ReplicationFactor factor,
+            @NotNull final Set<Integer> accepted,
+            @NotNull final String uri,
+            @NotNull final Function<List<ByteBuffer>, ServiceImpl.Action> local) {
+        if (keys.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+
+        final Map<String, List<Integer>> placement = placement(keys, factor.getFrom());
+        final Value[] newest = new Value[keys.size()];
+        final ItemQuorum quorum = new ItemQuorum(keys.size(), factor);
+        final CompletableFuture<List<Value>> result = new CompletableFuture<>();
+        for (final Map.Entry<String, List<Integer>> entries : placement.entrySet()) {
+            final String node = entries.getKey();
+            final List<ByteBuffer> part = new ArrayList<>(entries.getValue().size());
+            entries.getValue().forEach(i -> part.add(keys.get(i)));
+
+            final CompletableFuture<Response> answer = topology.isMe(node)
+                    ? submit(workers, local.apply(part))
+                    : submit(
+                            proxies,
+                            () -> forward(
+                                    node,
+                                    Request.METHOD_POST,
+                                    uri,
+                                    MultiGetCodec.encodeKeys(part),
+                                    Value.NO_TIMESTAMP));
+            answer.whenComplete((response, error) -> {
+                final List<Value> values = error == null ? valuesOf(response, accepted, part.size()) : null;
+                synchronized (quorum) {
+                    if (values == null) {
+                        final Exception failure = quorum.failed(entries.getValue(), isOverloaded(response, error));
+                        if (failure != null) {
+                            result.completeExceptionally(failure);
+                        }
+                        return;
+                    }
+
+                    for (int j = 0; j < values.size(); j++) {
+                        final int i = entries.getValue().get(j);
+                        final Value value = values.get(j);
+                        if (newest[i] == null || value.getTimestamp() > newest[i].getTimestamp()) {
+                            newest[i] = value;
+                        }
+                    }
+                    if (quorum.succeeded(entries.getValue())) {
+                        // The later answers keep updating the array
+                        result.complete(new ArrayList<>(Arrays.asList(newest)));
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Parses values from replica answer.
+     *
+     * @return values or {@code null} if the replica hasn't answered them
+     */
+    @Nullable
+    private static List<Value> valuesOf(
+            @NotNull final Response response,
+            @NotNull final Set<Integer> accepted,
+            final int count) {
+        if (!accepted.contains(response.getStatus())) {
+            return null;
+        }
+
+        try {
+            return MultiGetCodec.decodeValues(response.getBody(), count);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Groups indices of the keys by the replicas responsible for them.
+     */
+    @NotNull
+    private Map<String, List<Integer>> placement(
+            @NotNull final List<ByteBuffer> keys,
+            final int from) {
+        final Map<String, List<Integer>> placement = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            for (final String node : topology.replicasFor(keys.get(i), from)) {
+                placement.computeIfAbsent(node, n -> new ArrayList<>()).add(i);
+            }
+        }
+        return placement;
+    }
+
+    /**
+     * Tells whether the replica (either the local workers or the remote node) has rejected the request as overloaded.
+     */
+    private static boolean isOverloaded(
+            @Nullable final Response response,
+            @Nullable final Throwable error) {
+        return error == null
+                ? response != null && response.getStatus() == 503
+                : error instanceof RejectedExecutionException;
+    }
+
+    /**
+     * Extracts write timestamp from replica answer.
+     */
+    static long timestampOf(@NotNull final Response response) {
+        return parseTimestamp(response.getHeader(TIMESTAMP_HEADER + ": "));
+    }
+
+    /**
+     * Extracts write timestamp chosen by the coordinator from replica request.
+     */
+    static long timestampOf(@NotNull final Request request) {
+        return parseTimestamp(request.getHeader(TIMESTAMP_HEADER + ": "));
+    }
+
+    private static long parseTimestamp(@Nullable final String timestamp) {
+        if (timestamp == null) {
+            return Value.NO_TIMESTAMP;
+        }
+
+        try {
+            return Long.parseLong(timestamp.trim());
+        } catch (NumberFormatException e) {
+            return Value.NO_TIMESTAMP;
+        }
+    }
+
+    /**
+     * Runs the action on the executor, failing with {@link RejectedExecutionException} if it is overloaded.
+     * Actions able to answer without blocking are answered on the calling thread.
+     */
+    @NotNull
+    private static CompletableFuture<Response> submit(
+            @NotNull final Executor executor,
+            @NotNull final ServiceImpl.Action action) {
+        final Response ready = action.now();
+        if (ready != null) {
+            return CompletableFuture.completedFuture(ready);
+        }
+
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        try {
+            executor.execute(new WorkerPool.Task() {
+                @Override
+                public void run() {
+                    try {
+                        result.complete(action.act());
+                    } catch (IOException | RuntimeException e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void reject() {
+                    result.completeExceptionally(new RejectedExecutionException("Workers are overloaded"));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @NotNull
+    private Response forward(
+            @NotNull final String node,
+            final int method,
+            @NotNull final String uri,
+            final byte[] body,
+            final long timestamp) throws IOException {
+        final HttpClient client = clients.get(node);
+        final String[] headers = timestamp == Value.NO_TIMESTAMP
+                ? new String[]{PROXY_HEADER_LINE}
+                : new String[]{PROXY_HEADER_LINE, TIMESTAMP_HEADER + ": " + timestamp};
+        try {
+            switch (method) {
+                case Request.METHOD_GET:
+                    return client.get(uri, headers);
+
+                case Request.METHOD_PUT:
+                    return client.put(uri, body, headers);
+
+                case Request.METHOD_POST:
+                    return client.post(uri, body, headers);
+
+                case Request.METHOD_DELETE:
+                    return client.delete(uri, headers);
+
+                default:
+                    throw new IllegalArgumentException("Unsupported method " + method);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + node, e);
+        } catch (PoolException | HttpException e) {
+            throw new IOException("Can't reach " + node, e);
+        }
+    }
+
+    /**
+     * Completes with the first {@code ack} answers of the accepted statuses or fails once they can't be
+     * collected anymore. Other answers, e.g. {@code 400} of a replica rejecting the request, are failures.
+     */
+    @NotNull
+    @SuppressWarnings("FutureReturnValueIgnored")
+    private static CompletableFuture<List<Response>> atLeast(
+            final int ack,
+            @NotNull final Set<Integer> accepted,
+            @NotNull final List<CompletableFuture<Response>> answers) {
+        final CompletableFuture<List<Response>> result = new CompletableFuture<>();
+        final List<Response> successes = new ArrayList<>(ack);
+        final AtomicInteger failures = new AtomicInteger();
+        final int maxFailures = answers.size() - ack;
+
+        for (final CompletableFuture<Response> answer : answers) {
+            answer.whenComplete((response, error) -> {
+                if (error == null && accepted.contains(response.getStatus())) {
+                    synchronized (successes) {
+                        if (successes.size() < ack) {
+                            successes.add(response);
+                            if (successes.size() == ack) {
+                                result.complete(new ArrayList<>(successes));
+                            }
+                        }
+                    }
+                } else if (failures.incrementAndGet() == maxFailures + 1) {
+                    // Overloaded workers are reported as such rather than as lack of replicas
+                    result.completeExceptionally(error instanceof RejectedExecutionException
+                            ? error
+                            : new NotEnoughReplicasException("Not Enough Replicas"));
+                }
+            });
+        }
+
+        return result;
+    }
+
+    @Override
+    public void close() {
+        clients.values().forEach(HttpClient::close);
+    }
+}
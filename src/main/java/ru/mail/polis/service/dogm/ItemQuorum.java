@@ -0,0 +1,83 @@
+package ru.mail.polis.service.dogm;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Counts the answers of the replicas for every item of a request, which items are spread over the replicas,
+ * so that the request completes as soon as each item gathers its quorum.
+ *
+ * <p>Not thread safe, callers synchronize on the instance.
+ */
+final class ItemQuorum {
+    private final int ack;
+    private final int[] acks;
+    private final int[] pending;
+    private int acknowledged;
+    private boolean overloaded;
+
+    /**
+     * Expects the answers of {@code from} replicas for each of the items.
+     */
+    ItemQuorum(
+            final int items,
+            @NotNull final ReplicationFactor factor) {
+        this.ack = factor.getAck();
+        this.acks = new int[items];
+        this.pending = new int[items];
+        Arrays.fill(pending, factor.getFrom());
+    }
+
+    /**
+     * Counts successful answer of a replica.
+     *
+     * @param items indices of the items answered
+     * @return whether every item has just gathered its quorum
+     */
+    boolean succeeded(@NotNull final List<Integer> items) {
+        final boolean wasDone = isDone();
+        for (final int i : items) {
+            pending[i]--;
+            acks[i]++;
+            if (acks[i] == ack) {
+                acknowledged++;
+            }
+        }
+        return !wasDone && isDone();
+    }
+
+    /**
+     * Counts failed answer of a replica.
+     *
+     * @param items      indices of the items not answered
+     * @param overloaded whether the replica has rejected the request as overloaded
+     * @return failure to complete the request with if some of the items can't gather the quorum anymore
+     */
+    @Nullable
+    Exception failed(
+            @NotNull final List<Integer> items,
+            final boolean overloaded) {
+        this.overloaded |= overloaded;
+        boolean lost = false;
+        for (final int i : items) {
+            pending[i]--;
+            lost |= acks[i] < ack && acks[i] + pending[i] < ack;
+        }
+
+        if (!lost) {
+            return null;
+        }
+        // Overloaded replicas are reported as such rather than as lack of replicas
+        return this.overloaded
+                ? new RejectedExecutionException("Replicas are overloaded")
+                : new NotEnoughReplicasException("Not Enough Replicas");
+    }
+
+    boolean isDone() {
+        return acknowledged == acks.length;
+    }
+}
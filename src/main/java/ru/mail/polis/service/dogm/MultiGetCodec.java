@@ -0,0 +1,122 @@
+package ru.mail.polis.service.dogm;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.Value;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bodies of multi get requests.
+ *
+ * <p>Request body lists the keys separated by {@code \n}. Replicas answer with the values of the keys
+ * in the same order encoded as {@code <state:1><timestamp:8><length:4><data>}.
+ */
+final class MultiGetCodec {
+    private static final byte SEPARATOR = '\n';
+    private static final byte ABSENT = 0;
+    private static final byte PRESENT = 1;
+    private static final byte TOMBSTONE = 2;
+
+    private MultiGetCodec() {
+        // Not instantiable
+    }
+
+    /**
+     * Splits request body to the keys without copying them. Empty lines are skipped.
+     */
+    @NotNull
+    static List<ByteBuffer> decodeKeys(@NotNull final byte[] body) {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= body.length; i++) {
+            if (i == body.length || body[i] == SEPARATOR) {
+                if (i > start) {
+                    keys.add(ByteBuffer.wrap(body, start, i - start).slice());
+                }
+                start = i + 1;
+            }
+        }
+        return keys;
+    }
+
+    @NotNull
+    static byte[] encodeKeys(@NotNull final List<ByteBuffer> keys) {
+        int size = 0;
+        for (final ByteBuffer key : keys) {
+            size += key.remaining() + 1;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (final ByteBuffer key : keys) {
+            buffer.put(key.duplicate()).put(SEPARATOR);
+        }
+        return buffer.array();
+    }
+
+    @NotNull
+    static byte[] encodeValues(@NotNull final List<Value> values) {
+        int size = 0;
+        for (final Value value : values) {
+            size += Byte.BYTES + Long.BYTES + Integer.BYTES;
+            if (value.isPresent()) {
+                size += value.getData().remaining();
+            }
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (final Value value : values) {
+            if (value.isPresent()) {
+                final ByteBuffer data = value.getData();
+                buffer.put(PRESENT).putLong(value.getTimestamp()).putInt(data.remaining()).put(data);
+            } else {
+                buffer.put(value.isTombstone() ? TOMBSTONE : ABSENT).putLong(value.getTimestamp()).putInt(0);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Parses replica answer without copying the data.
+     *
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static List<Value> decodeValues(@NotNull final byte[] body, final int count) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final List<Value> values = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                final byte state = buffer.get();
+                final long timestamp = buffer.getLong();
+                final int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IllegalArgumentException("Invalid length " + length);
+                }
+
+                final ByteBuffer data = buffer.slice();
+                data.limit(length);
+                buffer.position(buffer.position() + length);
+
+                switch (state) {
+                    case PRESENT:
+                        values.add(Value.present(data, timestamp));
+                        break;
+
+                    case TOMBSTONE:
+                        values.add(Value.tombstone(timestamp));
+                        break;
+
+                    default:
+                        values.add(Value.absent());
+                        break;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated values", e);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,20 @@
+package ru.mail.polis.service.dogm;
+
+import java.io.IOException;
+
+/**
+ * Lightweight exception signalling that too many replicas have failed to answer.
+ */
+public class NotEnoughReplicasException extends IOException {
+
+    private static final long serialVersionUID = 3000L;
+
+    public NotEnoughReplicasException(final String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
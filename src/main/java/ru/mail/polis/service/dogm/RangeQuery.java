@@ -0,0 +1,154 @@
+package ru.mail.polis.service.dogm;
+
+import one.nio.http.Request;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.Iters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Range of keys to stream: {@code [start, end)} in ascending or, if {@code reverse=true}, descending order
+ * and at most {@code limit} records of it. With {@code keysOnly=true} only the keys are streamed.
+ *
+ * <p>With {@code snapshot=new} the range is read from a freshly pinned snapshot, whose token is returned
+ * in {@link #SNAPSHOT_HEADER}, so the next pages may be read from the same state with {@code snapshot=<token>}.
+ */
+final class RangeQuery {
+    static final String SNAPSHOT_HEADER = "X-OK-Snapshot";
+    static final long NO_SNAPSHOT = 0;
+
+    private static final long NO_LIMIT = -1;
+    private static final String NEW_SNAPSHOT = "new";
+
+    private final ByteBuffer from;
+    private final ByteBuffer to;
+    private final long limit;
+    private final boolean reverse;
+    private final boolean keysOnly;
+    // Snapshot to read from, unless a new one is to be pinned
+    private final String snapshot;
+
+    private RangeQuery(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final long limit,
+            final boolean reverse,
+            final boolean keysOnly,
+            @Nullable final String snapshot) {
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+        this.reverse = reverse;
+        this.keysOnly = keysOnly;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Parses {@code limit}, {@code reverse}, {@code keysOnly} and {@code snapshot} parameters of the request.
+     *
+     * @throws IllegalArgumentException if the parameters are malformed
+     */
+    @NotNull
+    static RangeQuery parse(
+            @NotNull final String start,
+            @Nullable final String end,
+            @NotNull final Request request) {
+        final ByteBuffer from = ByteBuffer.wrap(start.getBytes(UTF_8));
+        final ByteBuffer to = end == null || end.isEmpty() ? null : ByteBuffer.wrap(end.getBytes(UTF_8));
+
+        final String limitParameter = request.getParameter("limit=");
+        final long limit;
+        if (limitParameter == null) {
+            limit = NO_LIMIT;
+        } else {
+            try {
+                limit = Long.parseLong(limitParameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed limit: " + limitParameter, e);
+            }
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Invalid limit: " + limitParameter);
+            }
+        }
+
+        final boolean reverse = parseFlag(request, "reverse");
+        final boolean keysOnly = parseFlag(request, "keysOnly");
+
+        final String snapshot = request.getParameter("snapshot=");
+        if (snapshot != null && !NEW_SNAPSHOT.equals(snapshot)) {
+            try {
+                Long.parseLong(snapshot);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed snapshot: " + snapshot, e);
+            }
+        }
+
+        return new RangeQuery(from, to, limit, reverse, keysOnly, snapshot);
+    }
+
+    private static boolean parseFlag(
+            @NotNull final Request request,
+            @NotNull final String name) {
+        final String value = request.getParameter(name + '=');
+        if (value != null && !"true".equals(value) && !"false".equals(value)) {
+            throw new IllegalArgumentException("Malformed " + name + ": " + value);
+        }
+        return "true".equals(value);
+    }
+
+    /**
+     * Pins a new snapshot if requested.
+     *
+     * @return token of the snapshot to read from or {@link #NO_SNAPSHOT}
+     * @throws NoSuchElementException if the requested token can't belong to any snapshot
+     */
+    long snapshot(@NotNull final DAO dao) throws IOException {
+        if (snapshot == null) {
+            return NO_SNAPSHOT;
+        }
+        if (NEW_SNAPSHOT.equals(snapshot)) {
+            return dao.snapshot();
+        }
+
+        // Tokens are positive, so the explicit NO_SNAPSHOT must not silently read the live data
+        final long token = Long.parseLong(snapshot);
+        if (token <= NO_SNAPSHOT) {
+            throw new NoSuchElementException("Unknown snapshot " + snapshot);
+        }
+        return token;
+    }
+
+    /**
+     * Opens iterator over the records of the range, which stops right after the limit.
+     * Records of the keys only query come with empty values, so the stream holds {@code <key>\n} lines.
+     *
+     * @param snapshot token of the snapshot to read from or {@link #NO_SNAPSHOT}
+     * @throws java.util.NoSuchElementException if the snapshot is unknown or has expired
+     */
+    @NotNull
+    CloseableIterator<Record> open(
+            @NotNull final DAO dao,
+            final long snapshot) throws IOException {
+        final DAO source = snapshot == NO_SNAPSHOT ? dao : dao.at(snapshot);
+        final CloseableIterator<Record> records;
+        if (keysOnly) {
+            records = source.keyRange(from, to, reverse);
+        } else if (reverse) {
+            records = source.descendingRange(from, to);
+        } else if (limit == NO_LIMIT) {
+            // The whole range is going to be read, so it may be read ahead
+            records = source.parallelRange(from, to);
+        } else {
+            records = source.range(from, to);
+        }
+        return limit == NO_LIMIT ? records : Iters.limit(records, limit);
+    }
+}
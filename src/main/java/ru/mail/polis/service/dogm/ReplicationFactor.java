@@ -0,0 +1,60 @@
+package ru.mail.polis.service.dogm;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Amount of replicas to store the data at ({@code from}) and to wait responses from ({@code ack}).
+ */
+final class ReplicationFactor {
+    private final int ack;
+    private final int from;
+
+    private ReplicationFactor(final int ack, final int from) {
+        this.ack = ack;
+        this.from = from;
+    }
+
+    /**
+     * Majority of all the nodes of the cluster.
+     */
+    @NotNull
+    static ReplicationFactor quorum(final int clusterSize) {
+        return new ReplicationFactor(clusterSize / 2 + 1, clusterSize);
+    }
+
+    /**
+     * Parses {@code ack/from} string.
+     *
+     * @throws IllegalArgumentException if replicas are malformed or don't fit the cluster
+     */
+    @NotNull
+    static ReplicationFactor parse(@NotNull final String replicas, final int clusterSize) {
+        final int separator = replicas.indexOf('/');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Malformed replicas: " + replicas);
+        }
+
+        final int ack;
+        final int from;
+        try {
+            ack = Integer.parseInt(replicas.substring(0, separator));
+            from = Integer.parseInt(replicas.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed replicas: " + replicas, e);
+        }
+
+        if (ack <= 0 || ack > from || from > clusterSize) {
+            throw new IllegalArgumentException("Invalid replicas: " + replicas);
+        }
+
+        return new ReplicationFactor(ack, from);
+    }
+
+    int getAck() {
+        return ack;
+    }
+
+    int getFrom() {
+        return from;
+    }
+}
@@ -9,15 +9,26 @@ import one.nio.http.HttpSession;
 import one.nio.http.HttpServerConfig;
 import one.nio.net.Socket;
 import one.nio.server.AcceptorConfig;
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.Batch;
 import ru.mail.polis.dao.DAO;
-import ru.mail.polis.dao.ByteBufferUtils;
+import ru.mail.polis.dao.Iters;
+import ru.mail.polis.dao.Value;
 import ru.mail.polis.service.Service;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,18 +40,36 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class ServiceImpl extends HttpServer implements Service {
     private final DAO dao;
     private final Executor myWorkers;
+    private final Executor proxies;
+    private final Topology topology;
+    private final Coordinator coordinator;
     private final Logger log = Logger.getLogger("HttpServer");
     private static final String EXTRA_FAILURE = "Something went wrong";
+    private static final String OVERLOADED = "Overloaded";
+    // Answers of the replicas acknowledging the request, as a missing value is an answer to the read too
+    private static final Set<Integer> READ_ACKS = Set.of(200, 404);
+    private static final Set<Integer> VALUES_ACKS = Set.of(200);
+    private static final Set<Integer> UPSERT_ACKS = Set.of(201);
+    private static final Set<Integer> REMOVAL_ACKS = Set.of(202);
 
     /**
      * Constructor of simple REST/HTTP service.
+     *
+     * @param workers executor serving the requests locally
+     * @param proxies executor sending the requests to the other nodes, shut down along with the service
+     *                unless it's the workers
      */
     public ServiceImpl(final int port,
                        @NotNull final DAO dao,
-                       final Executor workers) throws IOException {
+                       final Executor workers,
+                       @NotNull final Executor proxies,
+                       @NotNull final Topology topology) throws IOException {
         super(getConfig(port));
         this.dao = dao;
         this.myWorkers = workers;
+        this.proxies = proxies;
+        this.topology = topology;
+        this.coordinator = new Coordinator(topology, workers, proxies);
     }
 
     /**
@@ -59,10 +88,12 @@ public class ServiceImpl extends HttpServer implements Service {
     }
 
     /**
-     * Main handler for requests to addresses like http://localhost:8080/v0/entity?id=key1.
+     * Main handler for requests to addresses like http://localhost:8080/v0/entity?id=key1[&replicas=2/3].
      */
     @Path("/v0/entity")
+    @SuppressWarnings("FutureReturnValueIgnored")
     public void entity(@Param("id") final String id,
+                       @Param("replicas") final String replicas,
                        @NotNull final Request request,
                        @NotNull final HttpSession session) throws IOException {
         if (id == null || id.isEmpty()) {
@@ -70,26 +101,82 @@ public class ServiceImpl extends HttpServer implements Service {
             return;
         }
 
-        try {
-            switch (request.getMethod()) {
-                case Request.METHOD_GET:
-                    executeAsync(session, () -> get(id));
-                    break;
-
-                case Request.METHOD_PUT:
-                    executeAsync(session, () -> put(id, request.getBody()));
-                    break;
-
-                case Request.METHOD_DELETE:
-                    executeAsync(session, () -> delete(id));
-                    break;
-
-                default:
-                    session.sendError(Response.METHOD_NOT_ALLOWED, "Wrong method");
-                    break;
+        final long timestamp = request.getMethod() == Request.METHOD_GET
+                ? Value.NO_TIMESTAMP
+                : writeTimestamp(request);
+        final Action local;
+        final Function<List<Response>, Response> merger;
+        final Set<Integer> accepted;
+        switch (request.getMethod()) {
+            case Request.METHOD_GET:
+                local = getAction(ByteBuffer.wrap(id.getBytes(UTF_8)));
+                merger = ServiceImpl::mergeGets;
+                accepted = READ_ACKS;
+                break;
+
+            case Request.METHOD_PUT:
+                local = () -> put(id, request.getBody(), timestamp);
+                merger = responses -> new Response(Response.CREATED, Response.EMPTY);
+                accepted = UPSERT_ACKS;
+                break;
+
+            case Request.METHOD_DELETE:
+                local = () -> delete(id, timestamp);
+                merger = responses -> new Response(Response.ACCEPTED, Response.EMPTY);
+                accepted = REMOVAL_ACKS;
+                break;
+
+            default:
+                session.sendError(Response.METHOD_NOT_ALLOWED, "Wrong method");
+                return;
+        }
+
+        // Requests from the other nodes are always served locally
+        if (request.getHeader(Coordinator.PROXY_HEADER) != null) {
+            executeAsync(session, local);
+            return;
+        }
+
+        final ReplicationFactor factor = replicationFactor(replicas, session);
+        if (factor == null) {
+            return;
+        }
+
+        final List<String> nodes = topology.replicasFor(ByteBuffer.wrap(id.getBytes(UTF_8)), factor.getFrom());
+        coordinator.replicate(nodes, factor.getAck(), accepted, request, timestamp, local, merger)
+                .whenComplete((response, error) -> respond(session, response, error));
+    }
+
+    /**
+     * Picks write timestamp of the request: the one chosen by the coordinator for the replicas
+     * or a new one if the write is coordinated by the current node.
+     */
+    private static long writeTimestamp(@NotNull final Request request) {
+        if (request.getHeader(Coordinator.PROXY_HEADER) != null) {
+            final long timestamp = Coordinator.timestampOf(request);
+            if (timestamp != Value.NO_TIMESTAMP) {
+                return timestamp;
             }
-        } catch (IOException e) {
-            session.sendError(Response.INTERNAL_ERROR, e.getMessage());
+        }
+        return Value.nextTimestamp();
+    }
+
+    /**
+     * Parses replication factor or answers {@code 400} if it is malformed.
+     *
+     * @return replication factor or {@code null} if the request is already answered
+     */
+    @Nullable
+    private ReplicationFactor replicationFactor(
+            @Nullable final String replicas,
+            @NotNull final HttpSession session) throws IOException {
+        try {
+            return replicas == null
+                    ? ReplicationFactor.quorum(topology.size())
+                    : ReplicationFactor.parse(replicas, topology.size());
+        } catch (IllegalArgumentException e) {
+            session.sendError(Response.BAD_REQUEST, e.getMessage());
+            return null;
         }
     }
 
@@ -106,29 +193,115 @@ public class ServiceImpl extends HttpServer implements Service {
         return new Response(Response.OK, Response.EMPTY);
     }
 
-    private Response get(final String id) throws IOException {
-        try {
-            final var key = ByteBuffer.wrap(id.getBytes(UTF_8));
-            final var value = ByteBufferUtils.getByteArray(dao.get(key));
-            return new Response(Response.OK, value);
-        } catch (NoSuchElementException ex) {
+    /**
+     * Load of the workers: queue depth, time spent in the queue and amount of rejected requests.
+     */
+    @Path("/v0/status/workers")
+    public Response workers() {
+        if (!(myWorkers instanceof WorkerPool)) {
             return new Response(Response.NOT_FOUND, Response.EMPTY);
         }
+        return new Response(Response.OK, ((WorkerPool) myWorkers).stats().getBytes(UTF_8));
+    }
+
+    /**
+     * State of the local storage, e.g. hit ratio of its value cache.
+     */
+    @Path("/v0/status/storage")
+    public Response storage() {
+        return new Response(Response.OK, dao.stats().getBytes(UTF_8));
     }
 
-    private Response put(final String id, final byte[] value) throws IOException {
+    /**
+     * Reads the key on a worker or right away if the storage knows its value without reading the disk.
+     */
+    @NotNull
+    private Action getAction(@NotNull final ByteBuffer key) {
+        return new Action() {
+            @Override
+            public Response act() throws IOException {
+                return toResponse(dao.getTimestamped(key));
+            }
+
+            @Override
+            public Response now() {
+                try {
+                    final Value cached = dao.getCached(key);
+                    return cached == null ? null : toResponse(cached);
+                } catch (IOException e) {
+                    // The worker reads the storage then and reports the failure if it persists
+                    return null;
+                }
+            }
+        };
+    }
+
+    @NotNull
+    private static Response toResponse(@NotNull final Value value) {
+        final Response response = value.isPresent()
+                ? new Response(Response.OK, value.toByteArray())
+                : new Response(Response.NOT_FOUND, Response.EMPTY);
+        response.addHeader(Coordinator.TIMESTAMP_HEADER + ": " + value.getTimestamp());
+        return response;
+    }
+
+    private Response put(final String id, final byte[] value, final long timestamp) throws IOException {
         final var key = ByteBuffer.wrap(id.getBytes(UTF_8));
         final var val = ByteBuffer.wrap(value);
-        dao.upsert(key, val);
+        dao.upsert(key, val, timestamp);
         return new Response(Response.CREATED, Response.EMPTY);
     }
 
-    private Response delete(final String id) throws IOException {
+    private Response delete(final String id, final long timestamp) throws IOException {
         final var key = ByteBuffer.wrap(id.getBytes(UTF_8));
-        dao.remove(key);
+        dao.remove(key, timestamp);
         return new Response(Response.ACCEPTED, Response.EMPTY);
     }
 
+    /**
+     * Picks the most recent answer, so that removals win over the older writes.
+     */
+    @NotNull
+    static Response mergeGets(@NotNull final List<Response> responses) {
+        Response newest = null;
+        long newestTimestamp = Value.NO_TIMESTAMP;
+        for (final Response response : responses) {
+            final long timestamp = Coordinator.timestampOf(response);
+            if (newest == null || timestamp > newestTimestamp) {
+                newest = response;
+                newestTimestamp = timestamp;
+            }
+        }
+
+        if (newest == null || newest.getStatus() != 200) {
+            return new Response(Response.NOT_FOUND, Response.EMPTY);
+        }
+        return new Response(Response.OK, newest.getBody());
+    }
+
+    private void respond(
+            @NotNull final HttpSession session,
+            final Response response,
+            final Throwable error) {
+        if (error == null) {
+            try {
+                session.sendResponse(response);
+            } catch (IOException e) {
+                log.log(Level.SEVERE, EXTRA_FAILURE, e);
+            }
+            return;
+        }
+
+        final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        if (cause instanceof NotEnoughReplicasException) {
+            sendError(session, Response.GATEWAY_TIMEOUT, cause.getMessage());
+        } else if (cause instanceof RejectedExecutionException) {
+            sendError(session, Response.SERVICE_UNAVAILABLE, OVERLOADED);
+        } else {
+            sendError(session, Response.INTERNAL_ERROR, cause.getMessage());
+        }
+    }
+
     void sendError(final HttpSession session, final String code, final String data) {
         try {
             session.sendError(code, data);
@@ -138,13 +311,28 @@ public class ServiceImpl extends HttpServer implements Service {
     }
 
     /**
-     * Main handler for requests to addresses like http://localhost:8080/v0/entities?start=key1[&end=key99].
+     * Main handler for requests to addresses like
+     * http://localhost:8080/v0/entities?start=key1[&end=key99][&limit=10][&reverse=true][&keysOnly=true]
+     * [&snapshot=new|token] (see {@link RangeQuery}).
+     * Batches of changes are accepted with {@code PUT} (see {@link BatchCodec} for the body format)
+     * and values of several keys are streamed back for {@code POST} (see {@link MultiGetCodec}).
      */
     @Path("/v0/entities")
     public void entities(@Param("start") final String start,
                          @Param("end") final String end,
+                         @Param("replicas") final String replicas,
                          @NotNull final Request request,
                          final HttpSession session) throws IOException {
+        if (request.getMethod() == Request.METHOD_PUT) {
+            batch(replicas, request, session);
+            return;
+        }
+
+        if (request.getMethod() == Request.METHOD_POST) {
+            multiGet(replicas, request, session);
+            return;
+        }
+
         if (start == null || start.isEmpty()) {
             sendError(session, Response.BAD_REQUEST, "No start");
             return;
@@ -155,17 +343,27 @@ public class ServiceImpl extends HttpServer implements Service {
             return;
         }
 
-        myWorkers.execute(() -> {
+        final RangeQuery query;
+        try {
+            query = RangeQuery.parse(start, end, request);
+        } catch (IllegalArgumentException e) {
+            sendError(session, Response.BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        execute(session, () -> {
             try {
-                final var from = ByteBuffer.wrap(start.getBytes(UTF_8));
-                final var to =
-                        end == null || end.isEmpty()
-                            ? null
-                            : ByteBuffer.wrap(end.getBytes(UTF_8));
-                final var records = dao.range(from, to);
+                final long snapshot = query.snapshot(dao);
+                final var records = query.open(dao, snapshot);
 
                 final var storageSession = (StorageSession) session;
-                storageSession.stream(records);
+                if (snapshot == RangeQuery.NO_SNAPSHOT) {
+                    storageSession.stream(records);
+                } else {
+                    storageSession.stream(records, RangeQuery.SNAPSHOT_HEADER + ": " + snapshot);
+                }
+            } catch (NoSuchElementException e) {
+                sendError(session, Response.GONE, e.getMessage());
             } catch (IOException e) {
                 try {
                     session.sendError(Response.INTERNAL_ERROR, e.getMessage());
@@ -176,15 +374,113 @@ public class ServiceImpl extends HttpServer implements Service {
         });
     }
 
+    @SuppressWarnings("FutureReturnValueIgnored")
+    private void batch(
+            @Nullable final String replicas,
+            @NotNull final Request request,
+            @NotNull final HttpSession session) throws IOException {
+        final Batch batch;
+        try {
+            final byte[] body = request.getBody();
+            batch = BatchCodec.decode(body == null ? Response.EMPTY : body, writeTimestamp(request));
+        } catch (IllegalArgumentException e) {
+            session.sendError(Response.BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        // Parts of the batch from the other nodes are always applied locally
+        if (request.getHeader(Coordinator.PROXY_HEADER) != null) {
+            executeAsync(session, () -> upsertAll(batch));
+            return;
+        }
+
+        final ReplicationFactor factor = replicationFactor(replicas, session);
+        if (factor == null) {
+            return;
+        }
+
+        coordinator.replicateBatch(batch, factor, UPSERT_ACKS, request.getURI(), part -> () -> upsertAll(part))
+                .whenComplete((response, error) -> respond(session, response, error));
+    }
+
+    @SuppressWarnings("FutureReturnValueIgnored")
+    private void multiGet(
+            @Nullable final String replicas,
+            @NotNull final Request request,
+            @NotNull final HttpSession session) throws IOException {
+        final byte[] body = request.getBody();
+        final List<ByteBuffer> keys = MultiGetCodec.decodeKeys(body == null ? Response.EMPTY : body);
+        if (keys.isEmpty()) {
+            session.sendError(Response.BAD_REQUEST, "No keys");
+            return;
+        }
+
+        // Parts of the lookup from the other nodes are always served locally
+        if (request.getHeader(Coordinator.PROXY_HEADER) != null) {
+            executeAsync(session, () -> getAll(keys));
+            return;
+        }
+
+        final ReplicationFactor factor = replicationFactor(replicas, session);
+        if (factor == null) {
+            return;
+        }
+
+        coordinator.replicateGetAll(keys, factor, VALUES_ACKS, request.getURI(), part -> () -> getAll(part))
+                .whenComplete((values, error) -> {
+                    if (error != null) {
+                        respond(session, null, error);
+                        return;
+                    }
+
+                    final List<Record> records = new ArrayList<>(values.size());
+                    for (int i = 0; i < values.size(); i++) {
+                        if (values.get(i).isPresent()) {
+                            records.add(Record.of(keys.get(i), values.get(i).getData()));
+                        }
+                    }
+
+                    try {
+                        ((StorageSession) session).stream(Iters.closeable(records.iterator()));
+                    } catch (IOException e) {
+                        sendError(session, Response.INTERNAL_ERROR, e.getMessage());
+                    }
+                });
+    }
+
+    private Response getAll(final List<ByteBuffer> keys) throws IOException {
+        return new Response(Response.OK, MultiGetCodec.encodeValues(dao.getAll(keys)));
+    }
+
+    private Response upsertAll(final Batch batch) throws IOException {
+        dao.upsertAll(batch);
+        return new Response(Response.CREATED, Response.EMPTY);
+    }
+
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        coordinator.close();
+        if (proxies != myWorkers && proxies instanceof ExecutorService) {
+            ((ExecutorService) proxies).shutdown();
+        }
+    }
+
     @Override
     public HttpSession createSession(final Socket socket) {
-        return new StorageSession(socket, this);
+        return new StorageSession(socket, this, myWorkers);
     }
 
     private void executeAsync(
             @NotNull final HttpSession session,
             @NotNull final Action action) {
-        myWorkers.execute(() -> {
+        final Response ready = action.now();
+        if (ready != null) {
+            respond(session, ready, null);
+            return;
+        }
+
+        execute(session, () -> {
             try {
                 session.sendResponse(action.act());
             } catch (IOException e) {
@@ -197,8 +493,37 @@ public class ServiceImpl extends HttpServer implements Service {
         });
     }
 
+    /**
+     * Runs the task on the workers, which answer {@code 503} instead if they are overloaded.
+     */
+    private void execute(
+            @NotNull final HttpSession session,
+            @NotNull final Runnable task) {
+        myWorkers.execute(new WorkerPool.Task() {
+            @Override
+            public void run() {
+                task.run();
+            }
+
+            @Override
+            public void reject() {
+                sendError(session, Response.SERVICE_UNAVAILABLE, OVERLOADED);
+            }
+        });
+    }
+
     @FunctionalInterface
     interface Action {
         Response act() throws IOException;
+
+        /**
+         * Answers without blocking if possible, so that the answer doesn't need a worker.
+         *
+         * @return response or {@code null} if the action must be run on a worker
+         */
+        @Nullable
+        default Response now() {
+            return null;
+        }
     }
 }
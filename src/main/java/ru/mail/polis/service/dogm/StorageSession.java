@@ -5,86 +5,276 @@ import one.nio.http.HttpSession;
 import one.nio.http.Response;
 import one.nio.net.Socket;
 import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static one.nio.http.Response.OK;
 
+/**
+ * Session streaming ranges of records with chunked transfer encoding.
+ *
+ * <p>Records are packed into chunks of {@code dht.chunkSize} bytes (64 KB by default)
+ * as {@code <key>\n<value>} sequences, so that small records don't cost a chunk frame and a write each.
+ *
+ * <p>Chunks are produced by the workers outside of the session lock, so that iterating the storage never
+ * stalls the selector thread. Production pauses once the socket can't take the chunk at once
+ * and resumes on a worker as soon as the write queue is drained.
+ *
+ * <p>Records are closed once streamed, on failure and on disconnect.
+ */
 public class StorageSession extends HttpSession {
     private static final byte[] CRLF = "\r\n".getBytes(UTF_8);
     private static final byte[] LF = "\n".getBytes(UTF_8);
     private static final byte[] EMPTY = "0\r\n\r\n".getBytes(UTF_8);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(UTF_8);
+    private static final int CHUNK_SIZE = Integer.getInteger("dht.chunkSize", 64 * 1024);
 
-    private Iterator<Record> records;
+    // Room for the largest chunk size in hex followed by CRLF
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + CRLF.length;
 
-    StorageSession(final Socket socket, final HttpServer server) {
+    private static final Logger log = Logger.getLogger("StorageSession");
+
+    private final Executor workers;
+
+    private CloseableIterator<Record> records;
+
+    // Whether a worker owns the records and the buffer, guarded by the session lock
+    private boolean producing;
+
+    // Whether the session is closed, guarded by the session lock
+    private boolean closed;
+
+    // Record taken from the iterator which hasn't fit the chunk yet
+    private Record pending;
+
+    // Chunk is encoded right into the buffer, which is reused once the previous one is sent
+    private byte[] buffer;
+
+    StorageSession(final Socket socket, final HttpServer server, final Executor workers) {
         super(socket, server);
+        this.workers = workers;
     }
 
     /**
      * Method to send large amount of data to client via chunked-transfer-encoding.
+     * Must be called by a worker, which produces the first chunks right away.
+     *
+     * @param records records to stream, closed once streamed
+     * @param headers extra headers of the response
      */
-    public void stream(final Iterator<Record> records) throws IOException {
-        this.records = records;
+    public void stream(
+            final CloseableIterator<Record> records,
+            final String... headers) throws IOException {
+        try {
+            synchronized (this) {
+                this.records = records;
+                this.producing = true;
+                if (buffer == null) {
+                    buffer = new byte[HEADER_SIZE + CHUNK_SIZE + CRLF.length + EMPTY.length];
+                }
+
+                final Response response = new Response(OK);
+                response.addHeader("Transfer-Encoding: chunked");
+                for (final String header : headers) {
+                    response.addHeader(header);
+                }
+                writeResponse(response, false);
+            }
+
+            produce();
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+    }
 
-        final Response response = new Response(OK);
-        response.addHeader("Transfer-Encoding: chunked");
-        writeResponse(response, false);
+    @Override
+    public synchronized void close() {
+        closed = true;
 
-        next();
+        // Records being iterated by a worker are released by the worker itself
+        if (!producing) {
+            release();
+        }
+        super.close();
     }
 
     @Override
-    protected void processWrite() throws Exception {
+    protected synchronized void processWrite() throws Exception {
         super.processWrite();
 
-        next();
+        if (records != null && queueHead == null && !producing) {
+            producing = true;
+            try {
+                workers.execute(this::resume);
+            } catch (RejectedExecutionException e) {
+                // Streams already started aren't dropped by the deadline, but can't outgrow the queue either
+                log.log(Level.WARNING, "Can't resume streaming", e);
+                abort();
+            }
+        }
     }
 
-    private byte[] getArray(final ByteBuffer buffer) {
-        final byte[] bytes = new byte[buffer.remaining()];
-        buffer.get(bytes);
-        return bytes;
+    private void resume() {
+        try {
+            produce();
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Can't stream records", e);
+            abort();
+        }
     }
 
-    private void next() throws IOException {
-        while (records.hasNext() && queueHead == null) {
-            final Record record = records.next();
+    private void abort() {
+        synchronized (this) {
+            producing = false;
+            release();
+        }
+        close();
+    }
 
-            final byte[] key = getArray(record.getKey());
-            final byte[] value = getArray(record.getValue());
+    private void release() {
+        if (records != null) {
+            records.close();
+            records = null;
+            pending = null;
+        }
+    }
 
-            final int size = key.length + value.length + LF.length;
-            final byte[] hexSize = Integer.toHexString(size).getBytes(UTF_8);
-            final int len = size + hexSize.length + 2 * CRLF.length;
+    /**
+     * Writes chunks while the socket takes them at once.
+     */
+    private void produce() throws IOException {
+        // Chunks are filled only when nothing is queued, so the queue never refers to the buffer being filled
+        while (true) {
+            final int end = fill();
+            final boolean last = pending == null && !records.hasNext();
+            final int start = end == HEADER_SIZE ? HEADER_SIZE : frame(end);
+            final int length = end == HEADER_SIZE ? 0 : end + CRLF.length - start;
 
-            final byte[] chunk = new byte[len];
-            final ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+            synchronized (this) {
+                if (closed) {
+                    producing = false;
+                    release();
+                    return;
+                }
 
-            chunkBuffer.put(hexSize);
-            chunkBuffer.put(CRLF);
-            chunkBuffer.put(key);
-            chunkBuffer.put(LF);
-            chunkBuffer.put(value);
-            chunkBuffer.put(CRLF);
+                if (last) {
+                    finish(start, length);
+                    return;
+                }
 
-            write(chunk, 0, len);
+                if (length > 0) {
+                    write(buffer, start, length);
+                }
+
+                if (queueHead != null) {
+                    producing = false;
+                    return;
+                }
+            }
         }
+    }
+
+    /**
+     * Packs as many records as fit the chunk.
+     *
+     * @return end of the chunk data in the buffer
+     */
+    private int fill() throws IOException {
+        int position = HEADER_SIZE;
+        while (pending != null || records.hasNext()) {
+            if (pending == null) {
+                pending = records.next();
+            }
 
-        if (!records.hasNext()) {
-            write(EMPTY, 0, EMPTY.length);
+            final ByteBuffer key = pending.getKey();
+            final ByteBuffer value = pending.getValue();
+            final int size = key.remaining() + LF.length + value.remaining();
 
-            server.incRequestsProcessed();
-            handling = pipeline.pollFirst();
-            if (handling != null) {
-                if (handling == FIN) {
-                    scheduleClose();
-                } else {
-                    server.handleRequest(handling, this);
+            if (position + size > HEADER_SIZE + CHUNK_SIZE) {
+                if (position > HEADER_SIZE) {
+                    break;
                 }
+
+                // Record doesn't fit even the empty chunk, so send it on its own
+                final byte[] chunk = new byte[HEADER_SIZE + size + CRLF.length];
+                put(chunk, encode(chunk, HEADER_SIZE, key, value), CRLF);
+                pending = null;
+                final int start = header(chunk, size);
+                write(chunk, start, chunk.length - start);
+                return position;
             }
+
+            position = encode(buffer, position, key, value);
+            pending = null;
         }
+        return position;
+    }
+
+    /**
+     * Completes the chunk in the buffer with its header and trailing CRLF.
+     *
+     * @return start of the chunk in the buffer
+     */
+    private int frame(final int end) {
+        put(buffer, end, CRLF);
+        return header(buffer, end - HEADER_SIZE);
+    }
+
+    private void finish(final int start, final int length) throws IOException {
+        System.arraycopy(EMPTY, 0, buffer, start + length, EMPTY.length);
+        write(buffer, start, length + EMPTY.length);
+
+        producing = false;
+        release();
+        server.incRequestsProcessed();
+        handling = pipeline.pollFirst();
+        if (handling != null) {
+            if (handling == FIN) {
+                scheduleClose();
+            } else {
+                server.handleRequest(handling, this);
+            }
+        }
+    }
+
+    private static int encode(
+            final byte[] chunk,
+            final int offset,
+            final ByteBuffer key,
+            final ByteBuffer value) {
+        final int keyLength = key.remaining();
+        key.get(chunk, offset, keyLength);
+        final int position = put(chunk, offset + keyLength, LF);
+        final int valueLength = value.remaining();
+        value.get(chunk, position, valueLength);
+        return position + valueLength;
+    }
+
+    /**
+     * Writes hex size of the chunk followed by CRLF right before its data.
+     *
+     * @return start of the chunk
+     */
+    private static int header(final byte[] chunk, final int size) {
+        int position = HEADER_SIZE - CRLF.length;
+        put(chunk, position, CRLF);
+        int rest = size;
+        do {
+            chunk[--position] = HEX_DIGITS[rest & 0xF];
+            rest >>>= 4;
+        } while (rest != 0);
+        return position;
+    }
+
+    private static int put(final byte[] chunk, final int position, final byte[] bytes) {
+        System.arraycopy(bytes, 0, chunk, position, bytes.length);
+        return position + bytes.length;
     }
 }
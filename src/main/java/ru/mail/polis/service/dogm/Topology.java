@@ -0,0 +1,43 @@
+package ru.mail.polis.service.dogm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Key-to-node placement function over a static set of cluster nodes.
+ */
+public interface Topology {
+
+    /**
+     * Checks whether given node is the current one.
+     */
+    boolean isMe(@NotNull String node);
+
+    /**
+     * Finds node responsible for the given key.
+     */
+    @NotNull
+    String primaryFor(@NotNull ByteBuffer key);
+
+    /**
+     * Finds given amount of distinct nodes responsible for the given key (primary one goes first).
+     */
+    @NotNull
+    List<String> replicasFor(@NotNull ByteBuffer key, int count);
+
+    /**
+     * Provides all the nodes of the cluster (including the current one).
+     */
+    @NotNull
+    Set<String> all();
+
+    /**
+     * Amount of nodes in the cluster.
+     */
+    default int size() {
+        return all().size();
+    }
+}
@@ -0,0 +1,79 @@
+package ru.mail.polis.service.dogm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs every task on its own virtual thread, so the requests blocked on the other nodes don't hold
+ * the platform threads.
+ *
+ * <p>Virtual threads are looked up at runtime, since the code targets JDK 11, and are available starting
+ * with JDK 21. The amount of the tasks in flight is limited, and the tasks beyond the limit are rejected
+ * the same way {@link WorkerPool} rejects them once its queue is full.
+ */
+public final class VirtualWorkers implements Executor {
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+
+    private VirtualWorkers(
+            @NotNull final ExecutorService executor,
+            final int maxInFlight) {
+        this.executor = executor;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Creates executor of virtual threads.
+     *
+     * @param maxInFlight maximum amount of the tasks running at once
+     * @throws IllegalStateException if the runtime doesn't support virtual threads
+     */
+    @NotNull
+    public static VirtualWorkers create(final int maxInFlight) {
+        final ExecutorService executor;
+        try {
+            final MethodHandle factory = MethodHandles.publicLookup().findStatic(
+                    Executors.class,
+                    "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+            executor = (ExecutorService) factory.invoke();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Virtual threads require JDK 21 or newer", e);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can't create virtual threads", e);
+        }
+        return new VirtualWorkers(executor, maxInFlight);
+    }
+
+    @Override
+    public void execute(@NotNull final Runnable command) {
+        if (!inFlight.tryAcquire()) {
+            if (command instanceof WorkerPool.Task) {
+                ((WorkerPool.Task) command).reject();
+                return;
+            }
+            throw new RejectedExecutionException("Too many requests in flight");
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+}
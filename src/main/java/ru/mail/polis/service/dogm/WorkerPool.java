@@ -0,0 +1,144 @@
+package ru.mail.polis.service.dogm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Workers with bounded queue, which shed the load they can't handle in time.
+ *
+ * <p>A task is rejected once the queue is full (either the new task or the oldest queued one, depending on
+ * the policy) and once it has waited in the queue past the deadline, since its client has most probably
+ * given up by then. Tasks implementing {@link Task} are answered on rejection. Other tasks make
+ * {@link #execute(Runnable)} throw {@link RejectedExecutionException} and are run regardless of the deadline.
+ */
+public final class WorkerPool extends ThreadPoolExecutor {
+    private final long deadlineNanos;
+    private final Rejection rejection;
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0L);
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Which task to reject once the queue is full.
+     */
+    public enum Rejection {
+        NEWEST,
+        OLDEST
+    }
+
+    /**
+     * Task, which is able to answer its client without being run.
+     */
+    interface Task extends Runnable {
+        /**
+         * Answers the client that the request isn't going to be served.
+         */
+        void reject();
+    }
+
+    /**
+     * Creates started pool.
+     *
+     * @param threads        amount of the workers
+     * @param queueSize      maximum amount of the queued tasks
+     * @param deadlineMillis time for a task to wait in the queue, {@code 0} waits forever
+     * @param rejection      task to reject once the queue is full
+     * @param threadFactory  factory of the workers
+     */
+    public WorkerPool(
+            final int threads,
+            final int queueSize,
+            final long deadlineMillis,
+            @NotNull final Rejection rejection,
+            @NotNull final ThreadFactory threadFactory) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory);
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.rejection = rejection;
+        setRejectedExecutionHandler((task, executor) -> reject((Queued) task));
+    }
+
+    @Override
+    public void execute(@NotNull final Runnable command) {
+        super.execute(new Queued(command));
+        maxDepth.accumulate(getQueue().size());
+    }
+
+    /**
+     * Describes the load of the pool.
+     */
+    @NotNull
+    public String stats() {
+        final long count = executed.sum() + expired.sum();
+        final long averageWait = count == 0 ? 0 : waitNanos.sum() / count;
+        return "active=" + getActiveCount()
+                + "\nqueued=" + getQueue().size()
+                + "\nmaxQueued=" + maxDepth.get()
+                + "\nexecuted=" + executed.sum()
+                + "\nrejected=" + rejected.sum()
+                + "\nexpired=" + expired.sum()
+                + "\navgWaitMicros=" + TimeUnit.NANOSECONDS.toMicros(averageWait)
+                + "\nmaxWaitMicros=" + TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get())
+                + '\n';
+    }
+
+    private void reject(@NotNull final Queued task) {
+        rejected.increment();
+        if (rejection == Rejection.OLDEST && !isShutdown()) {
+            // Only the tasks which can be answered are evicted
+            final Queued oldest = (Queued) getQueue().peek();
+            if (oldest != null && oldest.command instanceof Task && getQueue().remove(oldest)) {
+                oldest.reject();
+                // All the workers are started once the queue is full, so the queue may be fed directly
+                if (getQueue().offer(task)) {
+                    return;
+                }
+                rejected.increment();
+            }
+        }
+        task.reject();
+    }
+
+    private final class Queued implements Runnable {
+        private final Runnable command;
+        private final long enqueuedAt = System.nanoTime();
+
+        Queued(@NotNull final Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            final long waited = System.nanoTime() - enqueuedAt;
+            waitNanos.add(waited);
+            maxWaitNanos.accumulate(waited);
+
+            if (deadlineNanos > 0 && waited > deadlineNanos && command instanceof Task) {
+                expired.increment();
+                ((Task) command).reject();
+                return;
+            }
+
+            executed.increment();
+            command.run();
+        }
+
+        void reject() {
+            if (command instanceof Task) {
+                ((Task) command).reject();
+            } else {
+                throw new RejectedExecutionException("Workers are overloaded");
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for the lookups of {@link CachingDAO}, which don't read the storage.
+ */
+class CachingDAOTest {
+    private final MemoryDAO storage = new MemoryDAO();
+    private final CachingDAO dao = new CachingDAO(storage, OffHeapCache.MAX_VALUE_SIZE);
+
+    @Test
+    void getsCachedOnly() throws IOException {
+        dao.upsert(key("key"), bytes("value"));
+        assertNull(dao.getCached(key("key")));
+        assertEquals(0, storage.lookups());
+
+        dao.getTimestamped(key("key"));
+        final Value cached = dao.getCached(key("key"));
+        assertNotNull(cached);
+        assertEquals(bytes("value"), cached.getData());
+        assertEquals(1, storage.lookups());
+    }
+
+    @Test
+    void forgetsWrittenKeys() throws IOException {
+        dao.upsert(key("key"), bytes("value"));
+        dao.getTimestamped(key("key"));
+        dao.remove(key("key"));
+        assertNull(dao.getCached(key("key")));
+    }
+
+    @NotNull
+    private static ByteBuffer key(@NotNull final String key) {
+        return bytes(key);
+    }
+
+    @NotNull
+    private static ByteBuffer bytes(@NotNull final String value) {
+        return ByteBuffer.wrap(value.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,54 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for closing {@link DAO} while its scans are still open.
+ */
+class CloseTest extends TestBase {
+    private static final int KEYS = 10_000;
+
+    @Test
+    void closesOpenScans(@TempDir File data) throws IOException {
+        final CloseableIterator<Record> range;
+        final CloseableIterator<Record> parallel;
+        final CloseableIterator<Record> pinned;
+        final DAO dao = DAOFactory.create(data);
+        try {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(randomKeyBuffer(), randomValueBuffer());
+            }
+            dao.compact();
+
+            final ByteBuffer from = ByteBuffer.allocate(0);
+            range = dao.range(from, null);
+            parallel = dao.parallelRange(from, null);
+            pinned = dao.at(dao.snapshot()).range(from, null);
+            assertTrue(range.hasNext());
+            assertTrue(parallel.hasNext());
+            assertTrue(pinned.hasNext());
+        } finally {
+            dao.close();
+        }
+
+        // The scans are closed along with the storage and closing them again is harmless
+        assertFalse(range.hasNext());
+        assertFalse(parallel.hasNext());
+        assertFalse(pinned.hasNext());
+        assertThrows(IllegalStateException.class, range::next);
+        range.close();
+        parallel.close();
+        pinned.close();
+    }
+}
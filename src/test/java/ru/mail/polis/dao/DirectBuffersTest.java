@@ -0,0 +1,49 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for reusing {@link DirectBuffers} by platform threads.
+ */
+class DirectBuffersTest {
+    private static final int SIZE = 16;
+
+    private final DirectBuffers buffers = new DirectBuffers(SIZE, 1);
+
+    @Test
+    void reusesBufferOfThread() {
+        final ByteBuffer first = buffers.acquire();
+        assertNotNull(first);
+        assertTrue(first.isDirect());
+        assertEquals(SIZE, first.capacity());
+        first.putInt(42);
+        buffers.release(first);
+
+        final ByteBuffer second = buffers.acquire();
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(SIZE, second.limit());
+    }
+
+    @Test
+    void keepsBufferPerThread() throws InterruptedException {
+        final ByteBuffer own = buffers.acquire();
+        final AtomicReference<ByteBuffer> other = new AtomicReference<>();
+        // Platform threads aren't limited by the shared pool
+        final Thread thread = new Thread(() -> other.set(buffers.acquire()));
+        thread.start();
+        thread.join();
+
+        assertNotNull(other.get());
+        assertNotSame(own, other.get());
+    }
+}
@@ -0,0 +1,120 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for skipping the lookups of the missing keys by {@link FilteringDAO}.
+ */
+class FilteringDAOTest {
+    private static final long LOAD_TIMEOUT_MILLIS = 10_000;
+
+    private final MemoryDAO storage = new MemoryDAO();
+    private FilteringDAO dao;
+
+    @BeforeEach
+    void beforeEach() throws IOException, InterruptedException {
+        // Keys stored before the start are loaded in background
+        storage.upsert(key("stored"), key("value"));
+        storage.remove(key("removed"));
+        dao = new FilteringDAO(storage, 16 * 1024);
+        awaitLoaded(dao);
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        dao.close();
+    }
+
+    @Test
+    void skipsMissingKeys() throws IOException {
+        assertFalse(dao.getTimestamped(key("missing")).isPresent());
+        assertNull(dao.getIfPresent(key("missing")));
+        assertEquals(0, storage.lookups());
+        assertTrue(dao.stats().contains("filterSkipped=2\n"));
+    }
+
+    @Test
+    void readsLoadedKeys() throws IOException {
+        assertEquals(key("value"), dao.get(key("stored")));
+        assertTrue(dao.getTimestamped(key("removed")).isTombstone());
+        assertEquals(2, storage.lookups());
+    }
+
+    @Test
+    void readsWrittenKeys() throws IOException {
+        dao.upsert(key("written"), key("value"));
+        assertEquals(key("value"), dao.get(key("written")));
+
+        dao.remove(key("deleted"));
+        assertTrue(dao.getTimestamped(key("deleted")).isTombstone());
+    }
+
+    @Test
+    void readsBatches() throws IOException {
+        final List<Value> values = dao.getAll(Arrays.asList(key("missing"), key("stored"), key("other")));
+        assertFalse(values.get(0).isPresent());
+        assertEquals(key("value"), values.get(1).getData());
+        assertFalse(values.get(2).isPresent());
+        assertEquals(1, storage.lookups());
+    }
+
+    @Test
+    void answersMissingKeysWithoutStorage() throws IOException {
+        final Value missing = dao.getCached(key("missing"));
+        assertFalse(missing == null || missing.isPresent() || missing.isTombstone());
+        // The storage has to be read to tell the value of a stored key
+        assertNull(dao.getCached(key("stored")));
+        assertEquals(0, storage.lookups());
+    }
+
+    @Test
+    void keepsRemovalsOverRestart(@TempDir File data) throws IOException, InterruptedException {
+        DAO persistent = DAOFactory.create(data);
+        try {
+            persistent.upsert(key("key"), key("value"));
+            persistent.remove(key("key"));
+        } finally {
+            persistent.close();
+        }
+
+        // The filter is loaded from the storage now, which must report the removal rather than a missing key
+        persistent = DAOFactory.create(data);
+        try {
+            awaitLoaded(persistent);
+            final Value removed = persistent.getTimestamped(key("key"));
+            assertTrue(removed.isTombstone());
+            assertTrue(removed.getTimestamp() > 0);
+        } finally {
+            persistent.close();
+        }
+    }
+
+    private static void awaitLoaded(@NotNull final DAO dao) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + LOAD_TIMEOUT_MILLIS;
+        while (!dao.stats().contains("filterLoaded=true") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(dao.stats().contains("filterLoaded=true"));
+    }
+
+    @NotNull
+    private static ByteBuffer key(@NotNull final String key) {
+        return ByteBuffer.wrap(key.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,53 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for estimating the popularity of the keys by {@link FrequencySketch}.
+ */
+class FrequencySketchTest {
+    private static final int CAPACITY = 1024;
+    private static final int HOT = 42;
+    private static final int COLD = 4242;
+
+    @Test
+    void countsIncrements() {
+        final FrequencySketch sketch = new FrequencySketch(CAPACITY);
+        assertEquals(0, sketch.frequency(HOT));
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(HOT);
+        }
+        sketch.increment(COLD);
+
+        assertEquals(5, sketch.frequency(HOT));
+        assertEquals(1, sketch.frequency(COLD));
+    }
+
+    @Test
+    void saturates() {
+        final FrequencySketch sketch = new FrequencySketch(CAPACITY);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(HOT);
+        }
+        assertEquals(15, sketch.frequency(HOT));
+    }
+
+    @Test
+    void ages() {
+        // The smallest sketch is 16 counters wide and is halved every 160 increments
+        final FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 15; i++) {
+            sketch.increment(HOT);
+        }
+        assertEquals(15, sketch.frequency(HOT));
+
+        for (int i = 0; i < 145; i++) {
+            sketch.increment(COLD + i);
+        }
+        final int aged = sketch.frequency(HOT);
+        assertTrue(aged <= 7, "Frequency isn't halved: " + aged);
+    }
+}
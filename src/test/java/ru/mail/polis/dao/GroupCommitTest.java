@@ -0,0 +1,93 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Concurrency tests for {@link GroupCommit} of {@link DAO} writes.
+ */
+class GroupCommitTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final String GROUP_COMMIT = "rocks.groupCommit";
+
+    @BeforeEach
+    void beforeEach() {
+        System.setProperty(GROUP_COMMIT, "true");
+    }
+
+    @AfterEach
+    void afterEach() {
+        System.clearProperty(GROUP_COMMIT);
+    }
+
+    @Test
+    void acknowledgedWritesAreReadable(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            assertTimeoutPreemptively(TIMEOUT, () -> writeConcurrently(dao, 16, 5_000));
+        }
+    }
+
+    @Test
+    void moreWritersThanGroupSize(@TempDir File data) throws IOException {
+        // Leaders have to commit more than one group to get to their own changes
+        try (DAO dao = DAOFactory.create(data)) {
+            assertTimeoutPreemptively(TIMEOUT, () -> writeConcurrently(dao, 1_500, 3));
+        }
+    }
+
+    /**
+     * Upserts and removes random keys from many threads at once checking every write right after it returns.
+     */
+    private static void writeConcurrently(
+            @NotNull final DAO dao,
+            final int writers,
+            final int writes) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>(writers);
+        for (int i = 0; i < writers; i++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < writes; j++) {
+                        final ByteBuffer key = randomKeyBuffer();
+                        final ByteBuffer value = randomValueBuffer();
+                        dao.upsert(key, value);
+                        assertEquals(value, dao.get(key));
+                        if (j % 2 == 0) {
+                            dao.remove(key);
+                            assertNull(dao.getIfPresent(key));
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,93 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link KeyFilter}.
+ */
+class KeyFilterTest {
+    private static final int KEYS = 10_000;
+
+    @Test
+    void rejectsTooSmallSize() {
+        assertThrows(IllegalArgumentException.class, () -> new KeyFilter(KeyFilter.MIN_SIZE - 1));
+    }
+
+    @Test
+    void findsAddedKeys() {
+        final KeyFilter filter = new KeyFilter(16 * 1024);
+        for (int i = 0; i < KEYS; i++) {
+            filter.add(key("key" + i));
+        }
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(filter.mightContain(key("key" + i)));
+        }
+        // Keys of any length, empty one included
+        filter.add(key(""));
+        filter.add(key("a key longer than a single word of the hash"));
+        assertTrue(filter.mightContain(key("")));
+        assertTrue(filter.mightContain(key("a key longer than a single word of the hash")));
+    }
+
+    @Test
+    void skipsMostOfMissingKeys() {
+        final KeyFilter filter = new KeyFilter(16 * 1024);
+        for (int i = 0; i < KEYS; i++) {
+            filter.add(key("key" + i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (filter.mightContain(key("missing" + i))) {
+                falsePositives++;
+            }
+        }
+        // The filter is sized for about 1% at its capacity
+        assertTrue(falsePositives < KEYS * 3 / 100, "Too many false positives: " + falsePositives);
+        assertFalse(filter.isSaturated());
+    }
+
+    @Test
+    void countsDistinctKeys() {
+        final KeyFilter filter = new KeyFilter(16 * 1024);
+        filter.add(key("key"));
+        filter.add(key("key"));
+        assertEquals(1, filter.getKeys());
+
+        for (int i = 0; i < KEYS; i++) {
+            filter.add(key("key" + i));
+            filter.add(key("key" + i));
+        }
+        final long keys = filter.getKeys();
+        assertTrue(Math.abs(keys - KEYS) < KEYS / 20, "Keys are miscounted: " + keys);
+    }
+
+    @Test
+    void saturates() {
+        final KeyFilter filter = new KeyFilter(16 * 1024);
+        final long capacity = filter.getCapacity();
+        for (int i = 0; i < capacity * 9 / 10; i++) {
+            filter.add(key("key" + i));
+        }
+        assertFalse(filter.isSaturated());
+
+        for (int i = 0; i < capacity / 5; i++) {
+            filter.add(key("more" + i));
+        }
+        assertTrue(filter.isSaturated());
+    }
+
+    @NotNull
+    private static ByteBuffer key(@NotNull final String key) {
+        return ByteBuffer.wrap(key.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,94 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Record;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory {@link DAO} keeping timestamps and tombstones like the real storage does, for test purposes.
+ * Counts the point lookups, so the tests can check whether the lookups reach the storage.
+ */
+public final class MemoryDAO implements DAO {
+    private final NavigableMap<ByteBuffer, Value> values = new ConcurrentSkipListMap<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) {
+        final List<Record> records = new ArrayList<>();
+        for (final Map.Entry<ByteBuffer, Value> entry : values.tailMap(from, true).entrySet()) {
+            if (entry.getValue().isPresent()) {
+                records.add(Record.of(entry.getKey().duplicate(), entry.getValue().getData()));
+            }
+        }
+        return Iters.closeable(records.iterator());
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> writtenKeys() {
+        final List<Record> records = new ArrayList<>();
+        for (final ByteBuffer key : values.keySet()) {
+            records.add(Record.of(key.duplicate(), ByteBuffer.allocate(0)));
+        }
+        return Iters.closeable(records.iterator());
+    }
+
+    @NotNull
+    @Override
+    public Value getTimestamped(@NotNull final ByteBuffer key) {
+        lookups.incrementAndGet();
+        return values.getOrDefault(key, Value.absent());
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        upsert(key, value, Value.nextTimestamp());
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long timestamp) {
+        values.put(copy(key), Value.present(copy(value), timestamp));
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        remove(key, Value.nextTimestamp());
+    }
+
+    @Override
+    public void remove(
+            @NotNull final ByteBuffer key,
+            final long timestamp) {
+        values.put(copy(key), Value.tombstone(timestamp));
+    }
+
+    /**
+     * Provides amount of the point lookups served so far.
+     */
+    public int lookups() {
+        return lookups.get();
+    }
+
+    @Override
+    public void close() {
+        values.clear();
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+        return ByteBuffer.wrap(ByteBufferUtils.getByteArray(buffer));
+    }
+}
@@ -0,0 +1,147 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for caching the values by {@link OffHeapCache}.
+ */
+class OffHeapCacheTest {
+    private static final int PAGE = OffHeapCache.MAX_VALUE_SIZE;
+    // Keys a single page cache keeps on heap
+    private static final int MAX_ENTRIES = PAGE / 512;
+
+    private final OffHeapCache cache = new OffHeapCache(PAGE);
+
+    @Test
+    void rejectsTooSmallCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapCache(PAGE - 1));
+    }
+
+    @Test
+    void cachesValues() {
+        cache.put(key("present"), Value.present(bytes("value"), 1L), cache.version(key("present")));
+        cache.put(key("removed"), Value.tombstone(2L), cache.version(key("removed")));
+        cache.put(key("absent"), Value.absent(), cache.version(key("absent")));
+
+        final Value present = cache.get(key("present"));
+        assertNotNull(present);
+        assertEquals(bytes("value"), present.getData());
+        assertEquals(1L, present.getTimestamp());
+
+        final Value removed = cache.get(key("removed"));
+        assertNotNull(removed);
+        assertTrue(removed.isTombstone());
+        assertEquals(2L, removed.getTimestamp());
+
+        final Value absent = cache.get(key("absent"));
+        assertNotNull(absent);
+        assertFalse(absent.isPresent());
+        assertFalse(absent.isTombstone());
+
+        assertNull(cache.get(key("unknown")));
+    }
+
+    @Test
+    void replacesValue() {
+        cache.put(key("key"), Value.present(bytes("old"), 1L), cache.version(key("key")));
+        cache.put(key("key"), Value.present(bytes("new value"), 2L), cache.version(key("key")));
+
+        final Value value = cache.get(key("key"));
+        assertNotNull(value);
+        assertEquals(bytes("new value"), value.getData());
+        assertTrue(cache.stats().contains("cacheEntries=1\n"));
+    }
+
+    @Test
+    void skipsLargeValues() {
+        final ByteBuffer large = ByteBuffer.allocate(PAGE + 1);
+        cache.put(key("large"), Value.present(large, 1L), cache.version(key("large")));
+        assertNull(cache.get(key("large")));
+    }
+
+    @Test
+    void invalidates() {
+        cache.put(key("key"), Value.present(bytes("value"), 1L), cache.version(key("key")));
+        cache.invalidate(key("key"));
+        assertNull(cache.get(key("key")));
+    }
+
+    @Test
+    void dropsValueReadBeforeWrite() {
+        final long version = cache.version(key("key"));
+        // The key is written while its old value is being read from the storage
+        cache.invalidate(key("key"));
+        cache.put(key("key"), Value.present(bytes("stale"), 1L), version);
+        assertNull(cache.get(key("key")));
+    }
+
+    @Test
+    void probesWithoutMisses() {
+        assertNull(cache.probe(key("key")));
+        assertTrue(cache.stats().contains("cacheMisses=0\n"));
+
+        cache.put(key("key"), Value.present(bytes("value"), 1L), cache.version(key("key")));
+        assertNotNull(cache.probe(key("key")));
+        assertTrue(cache.stats().contains("cacheHits=1\n"));
+
+        assertNull(cache.get(key("other")));
+        assertTrue(cache.stats().contains("cacheMisses=1\n"));
+    }
+
+    @Test
+    void admitsPopularKeysOnly() {
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            final ByteBuffer key = key("hot" + i);
+            cache.get(key);
+            cache.get(key);
+            cache.put(key, Value.absent(), cache.version(key));
+        }
+
+        // A key requested once doesn't replace the keys requested more often
+        cache.get(key("cold"));
+        cache.put(key("cold"), Value.absent(), cache.version(key("cold")));
+        assertNull(cache.probe(key("cold")));
+        assertTrue(cache.stats().contains("cacheRejections=1\n"));
+
+        for (int i = 0; i < 5; i++) {
+            cache.get(key("cold"));
+        }
+        cache.put(key("cold"), Value.absent(), cache.version(key("cold")));
+        assertNotNull(cache.probe(key("cold")));
+        assertTrue(cache.stats().contains("cacheEvictions=1\n"));
+        assertTrue(cache.stats().contains("cacheEntries=" + MAX_ENTRIES + "\n"));
+    }
+
+    @Test
+    void cachesNothingOnceClosed() {
+        cache.put(key("key"), Value.present(bytes("value"), 1L), cache.version(key("key")));
+        cache.close();
+        assertNull(cache.get(key("key")));
+        assertTrue(cache.stats().contains("cacheUsed=0\n"));
+
+        cache.put(key("key"), Value.present(bytes("value"), 2L), cache.version(key("key")));
+        assertNull(cache.get(key("key")));
+        assertTrue(cache.stats().contains("cacheEntries=0\n"));
+    }
+
+    @NotNull
+    private static ByteBuffer key(@NotNull final String key) {
+        return bytes(key);
+    }
+
+    @NotNull
+    private static ByteBuffer bytes(@NotNull final String value) {
+        return ByteBuffer.wrap(value.getBytes(UTF_8));
+    }
+}
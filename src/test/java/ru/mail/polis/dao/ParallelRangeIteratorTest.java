@@ -0,0 +1,237 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link ParallelRangeIterator}.
+ */
+class ParallelRangeIteratorTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final int PARALLELISM = 2;
+    private static final int VALUE_SIZE = 1024;
+
+    private final ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+    private final AtomicInteger released = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        pool.shutdownNow();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void keepsOrderOfSubRanges() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final List<Range> ranges = ranges(5, 3_000);
+            int expected = 0;
+            try (ParallelRangeIterator iterator = iterator(ranges, 1024 * 1024)) {
+                while (iterator.hasNext()) {
+                    assertEquals(expected++, iterator.next().getKey().getInt());
+                }
+            }
+            assertEquals(5 * 3_000, expected);
+            awaitRelease(ranges);
+        });
+    }
+
+    @Test
+    void emptySubRanges() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final List<Range> ranges = ranges(3, 0);
+            try (ParallelRangeIterator iterator = iterator(ranges, 1024 * 1024)) {
+                assertFalse(iterator.hasNext());
+            }
+            awaitRelease(ranges);
+        });
+    }
+
+    @Test
+    void boundsBufferedBytes() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final long maxBufferedBytes = 256 * 1024;
+            final List<Range> ranges = ranges(4, 100_000);
+            try (ParallelRangeIterator iterator = iterator(ranges, maxBufferedBytes)) {
+                assertTrue(iterator.hasNext());
+                Thread.sleep(200);
+
+                // Every part may overshoot its share by a batch
+                final long limit = (maxBufferedBytes + ranges.size() * 64 * 1024) / VALUE_SIZE + 2 * 256;
+                assertTrue(produced(ranges) < limit, "Read ahead too far: " + produced(ranges));
+
+                // The paused parts are resumed while the consumer goes on
+                int read = 0;
+                while (iterator.hasNext() && read < 150_000) {
+                    iterator.next();
+                    read++;
+                }
+                assertEquals(150_000, read);
+            }
+            awaitRelease(ranges);
+        });
+    }
+
+    @Test
+    void pausedScansDoNotHoldThreads() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final List<ParallelRangeIterator> iterators = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                iterators.add(new ParallelRangeIterator(pool, new ArrayList<>(ranges(4, 100_000)), 64 * 1024, () -> {
+                }));
+            }
+
+            // The first scans wait for their consumers, while the last one still gets served
+            final ParallelRangeIterator last = iterators.get(iterators.size() - 1);
+            int read = 0;
+            while (last.hasNext()) {
+                last.next();
+                read++;
+            }
+            assertEquals(4 * 100_000, read);
+            assertTrue(pool.getPoolSize() <= PARALLELISM, "Too many threads: " + pool.getPoolSize());
+            iterators.forEach(ParallelRangeIterator::close);
+        });
+    }
+
+    @Test
+    void cancelsScansOnClose() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final List<Range> ranges = ranges(4, 100_000);
+            try (ParallelRangeIterator iterator = iterator(ranges, 64 * 1024)) {
+                for (int i = 0; i < 1_000; i++) {
+                    iterator.next();
+                }
+            }
+            awaitRelease(ranges);
+            assertTrue(produced(ranges) < 4 * 100_000);
+        });
+    }
+
+    @Test
+    void propagatesFailure() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final List<Range> ranges = ranges(3, 1_000);
+            ranges.get(1).failAt = 500;
+            try (ParallelRangeIterator iterator = iterator(ranges, 1024 * 1024)) {
+                for (int i = 0; i < 1_000; i++) {
+                    assertEquals(i, iterator.next().getKey().getInt());
+                }
+                final IllegalStateException e = assertThrows(IllegalStateException.class, () -> {
+                    while (iterator.hasNext()) {
+                        iterator.next();
+                    }
+                });
+                assertEquals("Broken range", e.getMessage());
+            }
+            awaitRelease(ranges);
+        });
+    }
+
+    @Test
+    void failsOnShutDownPool() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            pool.shutdown();
+            final List<Range> ranges = ranges(2, 1_000);
+            try (ParallelRangeIterator iterator = iterator(ranges, 1024 * 1024)) {
+                assertThrows(IllegalStateException.class, iterator::hasNext);
+            }
+            awaitRelease(ranges);
+        });
+    }
+
+    @NotNull
+    private ParallelRangeIterator iterator(
+            @NotNull final List<Range> ranges,
+            final long maxBufferedBytes) {
+        return new ParallelRangeIterator(pool, new ArrayList<>(ranges), maxBufferedBytes, () -> {
+            released.incrementAndGet();
+            release.countDown();
+        });
+    }
+
+    private void awaitRelease(@NotNull final List<Range> ranges) throws InterruptedException {
+        assertTrue(release.await(10, TimeUnit.SECONDS));
+        assertEquals(1, released.get());
+        for (final Range range : ranges) {
+            assertTrue(range.closed.get());
+        }
+    }
+
+    private static long produced(@NotNull final List<Range> ranges) {
+        long produced = 0;
+        for (final Range range : ranges) {
+            produced += range.produced.get();
+        }
+        return produced;
+    }
+
+    /**
+     * Consecutive ranges of records with int keys.
+     */
+    @NotNull
+    private static List<Range> ranges(
+            final int count,
+            final int size) {
+        final List<Range> ranges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ranges.add(new Range(i * size, (i + 1) * size));
+        }
+        return ranges;
+    }
+
+    private static final class Range implements CloseableIterator<Record> {
+        private final int end;
+        private final AtomicInteger produced = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile int failAt = -1;
+        private int next;
+
+        Range(final int start,
+              final int end) {
+            this.next = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < end;
+        }
+
+        @Override
+        public Record next() {
+            if (closed.get()) {
+                throw new AssertionError("Read after close");
+            }
+            if (produced.get() == failAt) {
+                throw new IllegalStateException("Broken range");
+            }
+            produced.incrementAndGet();
+            final ByteBuffer key = ByteBuffer.allocate(Integer.BYTES).putInt(0, next++);
+            return Record.of(key, ByteBuffer.allocate(VALUE_SIZE));
+        }
+
+        @Override
+        public void close() {
+            assertFalse(closed.getAndSet(true), "Closed twice");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for validation of {@link RocksConfig}.
+ */
+class RocksConfigTest {
+    private static final String BLOCK_CACHE_SIZE = "rocks.blockCache.size";
+    private static final String WRITE_BUFFER_SIZE = "rocks.writeBuffer.size";
+    private static final String SHARED_MEMORY = "rocks.sharedMemory";
+    private static final String KEY_FILTER_SIZE = "rocks.keyFilter.size";
+
+    @AfterEach
+    void afterEach() {
+        System.clearProperty(BLOCK_CACHE_SIZE);
+        System.clearProperty(WRITE_BUFFER_SIZE);
+        System.clearProperty(SHARED_MEMORY);
+        System.clearProperty(KEY_FILTER_SIZE);
+    }
+
+    @Test
+    void defaultsFitSharedCache() throws IOException {
+        assertEquals(16 * 1024 * 1024, RocksConfig.load().getWriteBufferSize());
+    }
+
+    @Test
+    void rejectsWriteBufferFillingSharedCache() {
+        System.setProperty(BLOCK_CACHE_SIZE, "16777216");
+        System.setProperty(WRITE_BUFFER_SIZE, "16777216");
+        assertThrows(IllegalArgumentException.class, RocksConfig::load);
+    }
+
+    @Test
+    void acceptsLargeWriteBufferOfOwnMemory() throws IOException {
+        System.setProperty(BLOCK_CACHE_SIZE, "16777216");
+        System.setProperty(WRITE_BUFFER_SIZE, "67108864");
+        System.setProperty(SHARED_MEMORY, "false");
+        assertEquals(64 * 1024 * 1024, RocksConfig.load().getWriteBufferSize());
+    }
+
+    @Test
+    void groupCommitIsOffByDefault() throws IOException {
+        assertFalse(RocksConfig.load().isGroupCommit());
+    }
+
+    @Test
+    void keyFilterMayBeDisabled() throws IOException {
+        System.setProperty(KEY_FILTER_SIZE, "0");
+        assertEquals(0, RocksConfig.load().getKeyFilterSize());
+    }
+
+    @Test
+    void rejectsTooSmallKeyFilter() {
+        System.setProperty(KEY_FILTER_SIZE, Integer.toString(KeyFilter.MIN_SIZE - 1));
+        assertThrows(IllegalArgumentException.class, RocksConfig::load);
+    }
+
+    @Test
+    void rejectsMalformedSize() {
+        System.setProperty(BLOCK_CACHE_SIZE, "big");
+        assertThrows(IllegalArgumentException.class, RocksConfig::load);
+    }
+}
@@ -0,0 +1,40 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for releasing expired {@link Snapshots}.
+ */
+class SnapshotsTest {
+    private static final long TTL_MILLIS = 50;
+
+    @Test
+    void sweepsIdleSnapshots(@TempDir File data) throws RocksDBException, InterruptedException {
+        RocksDB.loadLibrary();
+        try (Options options = new Options().setCreateIfMissing(true);
+             RocksDB db = RocksDB.open(options, data.getAbsolutePath())) {
+            final Snapshots snapshots = new Snapshots(db, TTL_MILLIS);
+            try {
+                snapshots.pin();
+                assertEquals(1, db.getLongProperty("rocksdb.num-snapshots"));
+
+                // Nothing touches the registry, so only the sweep releases the snapshot
+                final long deadline = System.currentTimeMillis() + 100 * TTL_MILLIS;
+                while (db.getLongProperty("rocksdb.num-snapshots") > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(TTL_MILLIS);
+                }
+                assertEquals(0, db.getLongProperty("rocksdb.num-snapshots"));
+            } finally {
+                snapshots.close();
+            }
+        }
+    }
+}
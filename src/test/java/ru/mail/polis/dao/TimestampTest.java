@@ -0,0 +1,119 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for write timestamps and tombstones of {@link Value}s.
+ */
+class TimestampTest extends TestBase {
+    @Test
+    void valueRoundTrip() {
+        final ByteBuffer data = randomValueBuffer();
+        final byte[] raw = Value.serialize(data, 42L);
+        assertFalse(Value.isTombstone(raw));
+
+        final Value value = Value.deserialize(raw);
+        assertTrue(value.isPresent());
+        assertEquals(42L, value.getTimestamp());
+        assertEquals(data, value.getData());
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(raw.length + 3);
+        direct.position(3);
+        direct.put(raw);
+        direct.position(3);
+        final Value copied = Value.deserialize(direct);
+        assertEquals(42L, copied.getTimestamp());
+        assertEquals(data, copied.getData());
+    }
+
+    @Test
+    void tombstoneRoundTrip() {
+        final byte[] raw = Value.serializeTombstone(42L);
+        assertTrue(Value.isTombstone(raw));
+        assertTrue(Value.isTombstone(ByteBuffer.wrap(raw)));
+
+        final Value value = Value.deserialize(raw);
+        assertTrue(value.isTombstone());
+        assertFalse(value.isPresent());
+        assertEquals(42L, value.getTimestamp());
+    }
+
+    @Test
+    void absentIsOlderThanAnyWrite() {
+        assertFalse(Value.absent().isPresent());
+        assertFalse(Value.absent().isTombstone());
+        assertTrue(Value.absent().getTimestamp() < Value.nextTimestamp());
+    }
+
+    @Test
+    void timestampsIncrease() {
+        long last = Value.nextTimestamp();
+        for (int i = 0; i < 10_000; i++) {
+            final long next = Value.nextTimestamp();
+            assertTrue(next > last);
+            last = next;
+        }
+    }
+
+    @Test
+    void writesKeepGivenTimestamp(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value, 42L);
+            final Value written = dao.getTimestamped(key);
+            assertEquals(value, written.getData());
+            assertEquals(42L, written.getTimestamp());
+
+            dao.remove(key, 43L);
+            final Value removed = dao.getTimestamped(key);
+            assertTrue(removed.isTombstone());
+            assertEquals(43L, removed.getTimestamp());
+        }
+    }
+
+    @Test
+    void batchKeepsGivenTimestamp(@TempDir File data) throws IOException {
+        final ByteBuffer upserted = randomKeyBuffer();
+        final ByteBuffer removed = randomKeyBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsertAll(new Batch(42L)
+                    .upsert(upserted, randomValueBuffer())
+                    .remove(removed));
+            assertEquals(42L, dao.getTimestamped(upserted).getTimestamp());
+            assertEquals(42L, dao.getTimestamped(removed).getTimestamp());
+            assertTrue(dao.getTimestamped(removed).isTombstone());
+        }
+    }
+
+    @Test
+    void reopensOwnFormat(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void refusesDataWithoutTimestamps(@TempDir File data) throws IOException {
+        // Database written before the values got their header
+        Files.write(data.toPath().resolve("CURRENT"), new byte[]{'\n'});
+        assertThrows(IllegalStateException.class, () -> DAOFactory.create(data));
+    }
+}
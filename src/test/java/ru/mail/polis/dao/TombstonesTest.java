@@ -0,0 +1,54 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteOptions;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for purging expired tombstones by {@link Tombstones}.
+ */
+class TombstonesTest {
+    // Long enough for the background purge not to run during the test
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    void purgesExpiredTombstonesOnly(@TempDir File data) throws RocksDBException, InterruptedException {
+        RocksDB.loadLibrary();
+        try (Options options = new Options().setCreateIfMissing(true);
+             WriteOptions writeOptions = new WriteOptions();
+             RocksDB db = RocksDB.open(options, data.getAbsolutePath())) {
+            final long now = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+            final long expired = now - TimeUnit.MILLISECONDS.toMicros(2 * TTL_MILLIS);
+            db.put(bytes("expired"), Value.serializeTombstone(expired));
+            db.put(bytes("fresh"), Value.serializeTombstone(now));
+            db.put(bytes("old value"), Value.serialize(ByteBuffer.wrap(bytes("value")), expired));
+
+            final Tombstones tombstones = new Tombstones(db, writeOptions, TTL_MILLIS, 0);
+            try {
+                tombstones.purge();
+                assertNull(db.get(bytes("expired")));
+                assertNotNull(db.get(bytes("fresh")));
+                assertNotNull(db.get(bytes("old value")));
+                assertTrue(tombstones.stats().contains("tombstonesPurged=1\n"));
+            } finally {
+                tombstones.close();
+            }
+        }
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,146 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Unit tests for a replicated three node {@link Service} cluster.
+ */
+class ReplicationTest extends ClusterTestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int NODES = 3;
+
+    private final int[] ports = new int[NODES];
+    private final File[] data = new File[NODES];
+    private final DAO[] daos = new DAO[NODES];
+    private final Service[] storages = new Service[NODES];
+    private final boolean[] running = new boolean[NODES];
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        endpoints = new LinkedHashSet<>();
+        for (int i = 0; i < NODES; i++) {
+            ports[i] = randomPort();
+            endpoints.add(endpoint(ports[i]));
+        }
+
+        for (int i = 0; i < NODES; i++) {
+            data[i] = Files.createTempDirectory();
+            daos[i] = DAOFactory.create(data[i]);
+            up(i);
+        }
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        for (int i = 0; i < NODES; i++) {
+            if (running[i]) {
+                down(i);
+            }
+            daos[i].close();
+            Files.recursiveDelete(data[i]);
+        }
+        endpoints = Collections.emptySet();
+    }
+
+    @Test
+    void quorumSurvivesNodeFailure() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String key = randomId();
+            final byte[] value = randomValue();
+
+            down(2);
+
+            assertEquals(201, upsert(0, key, value, 2, 3).getStatus());
+            assertArrayEquals(value, get(1, key, 2, 3).getBody());
+            assertEquals(202, delete(1, key, 2, 3).getStatus());
+            assertEquals(404, get(0, key, 2, 3).getStatus());
+        });
+    }
+
+    @Test
+    void missingReplicasAreReported() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String key = randomId();
+            final byte[] value = randomValue();
+
+            down(2);
+            assertEquals(504, upsert(0, key, value, 3, 3).getStatus());
+
+            down(1);
+            assertEquals(504, upsert(0, key, value, 2, 3).getStatus());
+            assertEquals(504, get(0, key, 2, 3).getStatus());
+            assertEquals(504, delete(0, key, 2, 3).getStatus());
+        });
+    }
+
+    @Test
+    void malformedReplicasAreRejected() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String key = randomId();
+            assertEquals(400, get(0, key, 0, 3).getStatus());
+            assertEquals(400, get(0, key, 3, 2).getStatus());
+            assertEquals(400, get(0, key, 2, 4).getStatus());
+        });
+    }
+
+    @Test
+    void removalWinsOverStaleReplica() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String key = randomId();
+            final byte[] value = randomValue();
+
+            assertEquals(201, upsert(0, key, value, 3, 3).getStatus());
+
+            // The removal misses node 2, which keeps the value
+            down(2);
+            assertEquals(202, delete(0, key, 2, 3).getStatus());
+            up(2);
+
+            assertEquals(404, get(2, key, 3, 3).getStatus());
+        });
+    }
+
+    @Test
+    void newerValueWinsOverStaleReplica() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String key = randomId();
+            final byte[] stale = randomValue();
+            final byte[] fresh = randomValue();
+
+            assertEquals(201, upsert(0, key, stale, 3, 3).getStatus());
+
+            // The update misses node 1, which keeps the old value
+            down(1);
+            assertEquals(201, upsert(0, key, fresh, 2, 3).getStatus());
+            up(1);
+
+            assertArrayEquals(fresh, get(1, key, 3, 3).getBody());
+        });
+    }
+
+    private void up(final int node) throws IOException {
+        storages[node] = ServiceFactory.create(ports[node], daos[node], endpoints);
+        start(node, storages[node]);
+        running[node] = true;
+    }
+
+    private void down(final int node) {
+        stop(node, storages[node]);
+        running[node] = false;
+    }
+}
@@ -0,0 +1,83 @@
+package ru.mail.polis.service.dogm;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.Batch;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link BatchCodec}.
+ */
+class BatchCodecTest extends TestBase {
+    @Test
+    void roundTrip() {
+        final Batch batch = new Batch();
+        for (int i = 0; i < 100; i++) {
+            if (i % 3 == 0) {
+                batch.remove(randomKeyBuffer());
+            } else {
+                batch.upsert(randomKeyBuffer(), randomValueBuffer());
+            }
+        }
+        batch.upsert(randomKeyBuffer(), ByteBuffer.allocate(0));
+
+        final Batch decoded = BatchCodec.decode(BatchCodec.encode(batch), 42L);
+        assertEquals(42L, decoded.getTimestamp());
+        assertEquals(batch.size(), decoded.size());
+
+        final List<Batch.Entry> expected = new ArrayList<>();
+        batch.forEach(expected::add);
+        int i = 0;
+        for (final Batch.Entry entry : decoded) {
+            final Batch.Entry original = expected.get(i++);
+            assertEquals(original.getKey(), entry.getKey());
+            assertEquals(original.isRemoval(), entry.isRemoval());
+            if (!entry.isRemoval()) {
+                assertEquals(original.getValue(), entry.getValue());
+            }
+        }
+    }
+
+    @Test
+    void emptyBatch() {
+        final byte[] body = BatchCodec.encode(new Batch());
+        assertEquals(0, body.length);
+        assertTrue(BatchCodec.decode(body, 1L).isEmpty());
+    }
+
+    @Test
+    void removalHasNoValue() {
+        final Batch decoded = BatchCodec.decode(BatchCodec.encode(new Batch().remove(randomKeyBuffer())), 1L);
+        final Batch.Entry entry = decoded.iterator().next();
+        assertTrue(entry.isRemoval());
+        assertThrows(IllegalStateException.class, entry::getValue);
+    }
+
+    @Test
+    void rejectsMalformedBody() {
+        final byte[] body = BatchCodec.encode(new Batch().upsert(randomKeyBuffer(), randomValueBuffer()));
+
+        // Truncated value
+        final byte[] truncated = new byte[body.length - 1];
+        System.arraycopy(body, 0, truncated, 0, truncated.length);
+        assertThrows(IllegalArgumentException.class, () -> BatchCodec.decode(truncated, 1L));
+
+        // Truncated length
+        assertThrows(IllegalArgumentException.class, () -> BatchCodec.decode(new byte[]{0, 0, 1}, 1L));
+
+        // Empty key
+        final byte[] emptyKey = ByteBuffer.allocate(2 * Integer.BYTES).putInt(0).putInt(-1).array();
+        assertThrows(IllegalArgumentException.class, () -> BatchCodec.decode(emptyKey, 1L));
+
+        // Negative value length other than removal
+        final byte[] negative = ByteBuffer.allocate(2 * Integer.BYTES + 1).putInt(1).put((byte) 1).putInt(-2).array();
+        assertThrows(IllegalArgumentException.class, () -> BatchCodec.decode(negative, 1L));
+    }
+}
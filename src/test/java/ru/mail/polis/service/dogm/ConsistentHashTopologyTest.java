@@ -0,0 +1,134 @@
+package ru.mail.polis.service.dogm;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for placement of the keys by {@link ConsistentHashTopology}.
+ */
+class ConsistentHashTopologyTest extends TestBase {
+    private static final int VIRTUAL_NODES = 64;
+    private static final int KEYS = 30_000;
+
+    private static final Set<String> NODES = new LinkedHashSet<>(Arrays.asList(
+            "http://localhost:8080",
+            "http://localhost:8081",
+            "http://localhost:8082"));
+
+    @Test
+    void replicasAreDistinctAndStartWithPrimary() {
+        final Topology topology = topology(NODES, "http://localhost:8080");
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            for (int count = 1; count <= NODES.size(); count++) {
+                final List<String> replicas = topology.replicasFor(key, count);
+                assertEquals(count, replicas.size());
+                assertEquals(count, new HashSet<>(replicas).size());
+                assertEquals(topology.primaryFor(key), replicas.get(0));
+                assertTrue(NODES.containsAll(replicas));
+            }
+        }
+    }
+
+    @Test
+    void smallerReplicaSetIsPrefix() {
+        final Topology topology = topology(NODES, "http://localhost:8081");
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final List<String> all = topology.replicasFor(key, 3);
+            assertEquals(all.subList(0, 2), topology.replicasFor(key, 2));
+            assertEquals(all.subList(0, 1), topology.replicasFor(key, 1));
+        }
+    }
+
+    @Test
+    void nodesAgreeOnPlacement() {
+        final Topology first = topology(NODES, "http://localhost:8080");
+        final Topology second = topology(NODES, "http://localhost:8082");
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            assertEquals(first.replicasFor(key, 2), second.replicasFor(key, 2));
+        }
+    }
+
+    @Test
+    void placementDoesNotDependOnBufferPosition() {
+        final Topology topology = topology(NODES, "http://localhost:8080");
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer shifted = ByteBuffer.allocate(key.remaining() + 3);
+        shifted.position(3);
+        shifted.put(key.duplicate());
+        shifted.position(3);
+        assertEquals(topology.replicasFor(key, 3), topology.replicasFor(shifted, 3));
+    }
+
+    @Test
+    void keysAreBalanced() {
+        final Topology topology = topology(NODES, "http://localhost:8080");
+        final Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            owned.merge(topology.primaryFor(randomKeyBuffer()), 1, Integer::sum);
+        }
+
+        assertEquals(NODES, owned.keySet());
+        for (final int keys : owned.values()) {
+            // Each of three nodes owns about a third of the keys
+            assertTrue(keys > KEYS / 5, "Too few keys: " + keys);
+            assertTrue(keys < KEYS / 2, "Too many keys: " + keys);
+        }
+    }
+
+    @Test
+    void addedNodeTakesOverItsShareOnly() {
+        final Set<String> grown = new LinkedHashSet<>(NODES);
+        grown.add("http://localhost:8083");
+        final Topology before = topology(NODES, "http://localhost:8080");
+        final Topology after = topology(grown, "http://localhost:8080");
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final String owner = after.primaryFor(key);
+            if (!owner.equals(before.primaryFor(key))) {
+                // Keys move to the new node only
+                assertEquals("http://localhost:8083", owner);
+                moved++;
+            }
+        }
+
+        // The new node takes about a quarter of the keys
+        assertTrue(moved > KEYS / 8, "Too few keys moved: " + moved);
+        assertTrue(moved < KEYS * 2 / 5, "Too many keys moved: " + moved);
+    }
+
+    @Test
+    void rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> topology(NODES, "http://localhost:9090"));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new ConsistentHashTopology(NODES, "http://localhost:8080", 0));
+
+        final Topology topology = topology(NODES, "http://localhost:8080");
+        assertThrows(IllegalArgumentException.class, () -> topology.replicasFor(randomKeyBuffer(), 0));
+        assertThrows(IllegalArgumentException.class, () -> topology.replicasFor(randomKeyBuffer(), 4));
+    }
+
+    private static Topology topology(
+            final Set<String> nodes,
+            final String me) {
+        return new ConsistentHashTopology(nodes, me, VIRTUAL_NODES);
+    }
+}
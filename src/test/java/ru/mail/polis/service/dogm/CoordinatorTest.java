@@ -0,0 +1,354 @@
+package ru.mail.polis.service.dogm;
+
+import one.nio.http.Request;
+import one.nio.http.Response;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.dao.Batch;
+import ru.mail.polis.dao.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the quorum logic of {@link Coordinator}.
+ *
+ * <p>Every replica is the current node, so the answers of the replicas are scripted by the local action.
+ */
+class CoordinatorTest {
+    private static final List<String> NODES = Arrays.asList("a", "b", "c");
+    private static final Request PUT = new Request(Request.METHOD_PUT, "/v0/entity?id=key", true);
+    private static final Set<Integer> CREATED = Set.of(201);
+    private static final Set<Integer> FOUND = Set.of(200, 404);
+
+    @Test
+    void completesOnceAckAnswered() throws Exception {
+        final List<Response> merged = new ArrayList<>();
+        final CompletableFuture<Response> result = replicate(
+                Runnable::run,
+                2,
+                CREATED,
+                answers(created(), created(), new IOException("Down")),
+                merged);
+
+        assertEquals(201, result.get().getStatus());
+        assertEquals(2, merged.size());
+    }
+
+    @Test
+    void failsWithoutQuorum() {
+        final CompletableFuture<Response> result = replicate(
+                Runnable::run,
+                2,
+                CREATED,
+                answers(created(), new IOException("Down"), new Response(Response.INTERNAL_ERROR, Response.EMPTY)),
+                new ArrayList<>());
+
+        assertCause(NotEnoughReplicasException.class, result);
+    }
+
+    @Test
+    void rejectedWriteIsNotAnAck() {
+        final Response rejected = new Response(Response.BAD_REQUEST, Response.EMPTY);
+        final CompletableFuture<Response> result = replicate(
+                Runnable::run,
+                2,
+                CREATED,
+                answers(created(), rejected, new IOException("Down")),
+                new ArrayList<>());
+
+        assertCause(NotEnoughReplicasException.class, result);
+    }
+
+    @Test
+    void unexpectedReadAnswerIsNotAnAck() {
+        final Response rejected = new Response(Response.BAD_REQUEST, Response.EMPTY);
+        final CompletableFuture<Response> result = replicate(
+                Runnable::run,
+                2,
+                FOUND,
+                answers(new Response(Response.NOT_FOUND, Response.EMPTY), rejected, rejected),
+                new ArrayList<>());
+
+        assertCause(NotEnoughReplicasException.class, result);
+    }
+
+    @Test
+    void missingValueIsAnAnswer() throws Exception {
+        final Response notFound = new Response(Response.NOT_FOUND, Response.EMPTY);
+        final List<Response> merged = new ArrayList<>();
+        final CompletableFuture<Response> result = replicate(
+                Runnable::run,
+                2,
+                FOUND,
+                answers(notFound, new IOException("Down"), notFound),
+                merged);
+
+        assertEquals(201, result.get().getStatus());
+        assertEquals(2, merged.size());
+        assertEquals(404, merged.get(0).getStatus());
+    }
+
+    @Test
+    void doesNotWaitForSlowReplica() throws Exception {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final CompletableFuture<Response> result = replicate(
+                tasks::add,
+                2,
+                CREATED,
+                answers(created(), created(), created()),
+                new ArrayList<>());
+
+        assertEquals(3, tasks.size());
+        tasks.poll().run();
+        assertFalse(result.isDone());
+        tasks.poll().run();
+        assertTrue(result.isDone());
+        assertEquals(201, result.get().getStatus());
+    }
+
+    @Test
+    void reportsOverload() {
+        final CompletableFuture<Response> result = replicate(
+                task -> {
+                    throw new RejectedExecutionException("Full");
+                },
+                2,
+                CREATED,
+                answers(created(), created(), created()),
+                new ArrayList<>());
+
+        assertCause(RejectedExecutionException.class, result);
+    }
+
+    @Test
+    void batchDoesNotWaitForSlowReplica() throws Exception {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final CompletableFuture<Response> result = replicateBatch(
+                tasks::add,
+                answers(created(), created(), created()));
+
+        assertEquals(3, tasks.size());
+        tasks.poll().run();
+        assertFalse(result.isDone());
+        tasks.poll().run();
+        assertTrue(result.isDone());
+        assertEquals(201, result.get().getStatus());
+    }
+
+    @Test
+    void batchCountsOnlySuccessfulAnswers() throws Exception {
+        final Response rejected = new Response(Response.BAD_REQUEST, Response.EMPTY);
+        assertEquals(201, replicateBatch(Runnable::run, answers(created(), rejected, created())).get().getStatus());
+        assertCause(
+                NotEnoughReplicasException.class,
+                replicateBatch(Runnable::run, answers(created(), rejected, new IOException("Down"))));
+    }
+
+    @Test
+    void batchReportsOverloadedReplica() {
+        final Response overloaded = new Response(Response.SERVICE_UNAVAILABLE, Response.EMPTY);
+        assertCause(
+                RejectedExecutionException.class,
+                replicateBatch(Runnable::run, answers(created(), overloaded, new IOException("Down"))));
+    }
+
+    @Test
+    void emptyBatchIsApplied() throws Exception {
+        final Coordinator coordinator = new Coordinator(new LocalTopology(), Runnable::run, Runnable::run);
+        final CompletableFuture<Response> result = coordinator.replicateBatch(
+                new Batch(),
+                ReplicationFactor.quorum(NODES.size()),
+                CREATED,
+                "/v0/entities",
+                part -> () -> {
+                    throw new IOException("Nothing to apply");
+                });
+        assertEquals(201, result.get().getStatus());
+    }
+
+    @Test
+    void getAllPicksNewestOfQuorum() throws Exception {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final CompletableFuture<List<Value>> result = replicateGetAll(
+                tasks::add,
+                answers(found(1L), found(3L), found(2L)));
+
+        tasks.poll().run();
+        assertFalse(result.isDone());
+        tasks.poll().run();
+        assertTrue(result.isDone());
+        assertEquals(3L, result.get().get(0).getTimestamp());
+
+        // Late answers don't change the result
+        tasks.poll().run();
+        assertEquals(3L, result.get().get(0).getTimestamp());
+    }
+
+    @Test
+    void getAllIgnoresFailedReplica() throws Exception {
+        final CompletableFuture<List<Value>> result = replicateGetAll(
+                Runnable::run,
+                answers(new IOException("Down"), new Response(Response.BAD_REQUEST, Response.EMPTY), found(1L)));
+        assertCause(NotEnoughReplicasException.class, result);
+
+        final CompletableFuture<List<Value>> answered = replicateGetAll(
+                Runnable::run,
+                answers(new IOException("Down"), found(1L), found(2L)));
+        assertEquals(2L, answered.get().get(0).getTimestamp());
+    }
+
+    @Test
+    void getAllReportsOverloadedReplica() {
+        final Response overloaded = new Response(Response.SERVICE_UNAVAILABLE, Response.EMPTY);
+        assertCause(
+                RejectedExecutionException.class,
+                replicateGetAll(Runnable::run, answers(overloaded, overloaded, found(1L))));
+    }
+
+    @Test
+    void parsesReplicationFactor() {
+        final ReplicationFactor quorum = ReplicationFactor.quorum(3);
+        assertEquals(2, quorum.getAck());
+        assertEquals(3, quorum.getFrom());
+
+        final ReplicationFactor parsed = ReplicationFactor.parse("1/2", 3);
+        assertEquals(1, parsed.getAck());
+        assertEquals(2, parsed.getFrom());
+
+        assertThrows(IllegalArgumentException.class, () -> ReplicationFactor.parse("2", 3));
+        assertThrows(IllegalArgumentException.class, () -> ReplicationFactor.parse("a/3", 3));
+        assertThrows(IllegalArgumentException.class, () -> ReplicationFactor.parse("0/3", 3));
+        assertThrows(IllegalArgumentException.class, () -> ReplicationFactor.parse("3/2", 3));
+        assertThrows(IllegalArgumentException.class, () -> ReplicationFactor.parse("2/4", 3));
+    }
+
+    @NotNull
+    private static CompletableFuture<Response> replicate(
+            @NotNull final Executor workers,
+            final int ack,
+            @NotNull final Set<Integer> accepted,
+            @NotNull final ServiceImpl.Action local,
+            @NotNull final List<Response> merged) {
+        final Coordinator coordinator = new Coordinator(new LocalTopology(), workers, workers);
+        return coordinator.replicate(NODES, ack, accepted, PUT, Value.NO_TIMESTAMP, local, responses -> {
+            merged.addAll(responses);
+            return created();
+        });
+    }
+
+    /**
+     * Applies the batch of two entries with the replication factor of {@code 2/3}.
+     */
+    @NotNull
+    private static CompletableFuture<Response> replicateBatch(
+            @NotNull final Executor workers,
+            @NotNull final ServiceImpl.Action local) {
+        final Coordinator coordinator = new Coordinator(new LocalTopology(), workers, workers);
+        final Batch batch = new Batch()
+                .upsert(ByteBuffer.wrap(new byte[]{1}), ByteBuffer.wrap(new byte[]{2}))
+                .remove(ByteBuffer.wrap(new byte[]{3}));
+        return coordinator.replicateBatch(
+                batch,
+                ReplicationFactor.quorum(NODES.size()),
+                CREATED,
+                "/v0/entities",
+                part -> local);
+    }
+
+    /**
+     * Looks up a single key with the replication factor of {@code 2/3}.
+     */
+    @NotNull
+    private static CompletableFuture<List<Value>> replicateGetAll(
+            @NotNull final Executor workers,
+            @NotNull final ServiceImpl.Action local) {
+        final Coordinator coordinator = new Coordinator(new LocalTopology(), workers, workers);
+        return coordinator.replicateGetAll(
+                Collections.singletonList(ByteBuffer.wrap(new byte[]{1})),
+                ReplicationFactor.quorum(NODES.size()),
+                Set.of(200),
+                "/v0/entities",
+                part -> local);
+    }
+
+    @NotNull
+    private static Response found(final long timestamp) {
+        final Value value = Value.present(ByteBuffer.wrap(new byte[]{2}), timestamp);
+        return new Response(Response.OK, MultiGetCodec.encodeValues(Collections.singletonList(value)));
+    }
+
+    /**
+     * Answers with the given responses or exceptions in turn.
+     */
+    @NotNull
+    private static ServiceImpl.Action answers(@NotNull final Object... answers) {
+        final Queue<Object> queue = new ArrayDeque<>(Arrays.asList(answers));
+        return () -> {
+            final Object answer = queue.remove();
+            if (answer instanceof IOException) {
+                throw (IOException) answer;
+            }
+            return (Response) answer;
+        };
+    }
+
+    @NotNull
+    private static Response created() {
+        return new Response(Response.CREATED, Response.EMPTY);
+    }
+
+    private static void assertCause(
+            @NotNull final Class<? extends Throwable> expected,
+            @NotNull final CompletableFuture<?> result) {
+        final ExecutionException e = assertThrows(ExecutionException.class, result::get);
+        assertTrue(expected.isInstance(e.getCause()), "Unexpected failure: " + e.getCause());
+    }
+
+    /**
+     * Topology, where every node is the current one.
+     */
+    private static final class LocalTopology implements Topology {
+        @Override
+        public boolean isMe(@NotNull final String node) {
+            return true;
+        }
+
+        @NotNull
+        @Override
+        public String primaryFor(@NotNull final ByteBuffer key) {
+            return NODES.get(0);
+        }
+
+        @NotNull
+        @Override
+        public List<String> replicasFor(
+                @NotNull final ByteBuffer key,
+                final int count) {
+            return NODES.subList(0, count);
+        }
+
+        @NotNull
+        @Override
+        public Set<String> all() {
+            return new LinkedHashSet<>(NODES);
+        }
+    }
+}
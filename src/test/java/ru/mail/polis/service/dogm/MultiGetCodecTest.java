@@ -0,0 +1,86 @@
+package ru.mail.polis.service.dogm;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.Value;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link MultiGetCodec}.
+ */
+class MultiGetCodecTest extends TestBase {
+    @Test
+    void keysRoundTrip() {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(ByteBuffer.wrap(randomId().getBytes(UTF_8)));
+        }
+        assertEquals(keys, MultiGetCodec.decodeKeys(MultiGetCodec.encodeKeys(keys)));
+    }
+
+    @Test
+    void emptyLinesAreSkipped() {
+        final List<ByteBuffer> keys = MultiGetCodec.decodeKeys("\na\n\nb".getBytes(UTF_8));
+        assertEquals(
+                Arrays.asList(ByteBuffer.wrap("a".getBytes(UTF_8)), ByteBuffer.wrap("b".getBytes(UTF_8))),
+                keys);
+        assertTrue(MultiGetCodec.decodeKeys(new byte[0]).isEmpty());
+    }
+
+    @Test
+    void valuesRoundTrip() {
+        final ByteBuffer data = randomValueBuffer();
+        final List<Value> values = Arrays.asList(
+                Value.present(data, 1L),
+                Value.tombstone(2L),
+                Value.absent(),
+                Value.present(ByteBuffer.allocate(0), 3L));
+
+        final List<Value> decoded = MultiGetCodec.decodeValues(MultiGetCodec.encodeValues(values), values.size());
+        assertEquals(values.size(), decoded.size());
+
+        assertTrue(decoded.get(0).isPresent());
+        assertEquals(data, decoded.get(0).getData());
+        assertEquals(1L, decoded.get(0).getTimestamp());
+
+        assertTrue(decoded.get(1).isTombstone());
+        assertEquals(2L, decoded.get(1).getTimestamp());
+
+        assertFalse(decoded.get(2).isPresent());
+        assertFalse(decoded.get(2).isTombstone());
+        assertEquals(Value.NO_TIMESTAMP, decoded.get(2).getTimestamp());
+
+        assertEquals(0, decoded.get(3).getData().remaining());
+        assertEquals(3L, decoded.get(3).getTimestamp());
+    }
+
+    @Test
+    void rejectsMalformedValues() {
+        final byte[] body = MultiGetCodec.encodeValues(Arrays.asList(Value.present(randomValueBuffer(), 1L)));
+
+        // Fewer values than keys
+        assertThrows(IllegalArgumentException.class, () -> MultiGetCodec.decodeValues(body, 2));
+
+        // Truncated data
+        final byte[] truncated = Arrays.copyOf(body, body.length - 1);
+        assertThrows(IllegalArgumentException.class, () -> MultiGetCodec.decodeValues(truncated, 1));
+
+        // Negative length
+        final byte[] negative = ByteBuffer.allocate(Byte.BYTES + Long.BYTES + Integer.BYTES)
+                .put((byte) 1)
+                .putLong(1L)
+                .putInt(-1)
+                .array();
+        assertThrows(IllegalArgumentException.class, () -> MultiGetCodec.decodeValues(negative, 1));
+    }
+}
@@ -0,0 +1,128 @@
+package ru.mail.polis.service.dogm;
+
+import one.nio.http.Request;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.MemoryDAO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@code limit}, {@code reverse} and {@code keysOnly} parameters of {@link RangeQuery}.
+ */
+class RangeQueryTest {
+    private final MemoryDAO dao = new MemoryDAO();
+
+    @BeforeEach
+    void beforeEach() {
+        for (final String key : Arrays.asList("a", "b", "c", "d", "e")) {
+            dao.upsert(bytes(key), bytes("value of " + key));
+        }
+        dao.remove(bytes("c"));
+    }
+
+    @Test
+    void wholeRange() throws IOException {
+        assertEquals(Arrays.asList("a", "b", "d", "e"), keys("start=a"));
+        assertEquals(Arrays.asList("b", "d"), keys("start=b&end=e"));
+        assertEquals("value of b", values("start=b&end=c").get(0));
+    }
+
+    @Test
+    void limit() throws IOException {
+        assertEquals(Arrays.asList("a", "b"), keys("start=a&limit=2"));
+        assertEquals(Arrays.asList("d", "e"), keys("start=c&limit=10"));
+        assertEquals(Arrays.asList("b"), keys("start=b&end=e&limit=1"));
+    }
+
+    @Test
+    void reverse() throws IOException {
+        assertEquals(Arrays.asList("e", "d", "b", "a"), keys("start=a&reverse=true"));
+        assertEquals(Arrays.asList("d", "b"), keys("start=b&end=e&reverse=true"));
+        assertEquals(Arrays.asList("e", "d"), keys("start=a&reverse=true&limit=2"));
+        assertEquals(Arrays.asList("a", "b"), keys("start=a&reverse=false&limit=2"));
+    }
+
+    @Test
+    void keysOnly() throws IOException {
+        assertEquals(Arrays.asList("", "", "", ""), values("start=a&keysOnly=true"));
+        assertEquals(Arrays.asList("a", "b", "d", "e"), keys("start=a&keysOnly=true"));
+        assertEquals(Arrays.asList("e", "d"), keys("start=a&keysOnly=true&reverse=true&limit=2"));
+    }
+
+    @Test
+    void emptyRange() throws IOException {
+        assertTrue(keys("start=f").isEmpty());
+        assertTrue(keys("start=d&end=b").isEmpty());
+        assertTrue(keys("start=c&end=d").isEmpty());
+    }
+
+    @Test
+    void rejectsMalformedParameters() {
+        assertThrows(IllegalArgumentException.class, () -> query("start=a&limit=0"));
+        assertThrows(IllegalArgumentException.class, () -> query("start=a&limit=-1"));
+        assertThrows(IllegalArgumentException.class, () -> query("start=a&limit=many"));
+        assertThrows(IllegalArgumentException.class, () -> query("start=a&reverse=yes"));
+        assertThrows(IllegalArgumentException.class, () -> query("start=a&keysOnly=1"));
+        assertThrows(IllegalArgumentException.class, () -> query("start=a&snapshot=old"));
+    }
+
+    @Test
+    void rejectsNonPositiveSnapshot() {
+        assertThrows(NoSuchElementException.class, () -> query("start=a&snapshot=0").snapshot(dao));
+        assertThrows(NoSuchElementException.class, () -> query("start=a&snapshot=-1").snapshot(dao));
+    }
+
+    @NotNull
+    private List<String> keys(@NotNull final String parameters) throws IOException {
+        final List<String> keys = new ArrayList<>();
+        for (final Record record : read(parameters)) {
+            keys.add(UTF_8.decode(record.getKey()).toString());
+        }
+        return keys;
+    }
+
+    @NotNull
+    private List<String> values(@NotNull final String parameters) throws IOException {
+        final List<String> values = new ArrayList<>();
+        for (final Record record : read(parameters)) {
+            values.add(UTF_8.decode(record.getValue()).toString());
+        }
+        return values;
+    }
+
+    @NotNull
+    private List<Record> read(@NotNull final String parameters) throws IOException {
+        final RangeQuery query = query(parameters);
+        final List<Record> records = new ArrayList<>();
+        try (CloseableIterator<Record> iterator = query.open(dao, query.snapshot(dao))) {
+            iterator.forEachRemaining(records::add);
+        }
+        return records;
+    }
+
+    @NotNull
+    private static RangeQuery query(@NotNull final String parameters) {
+        final Request request = new Request(Request.METHOD_GET, "/v0/entities?" + parameters, true);
+        final String start = request.getParameter("start=");
+        return RangeQuery.parse(start, request.getParameter("end="), request);
+    }
+
+    @NotNull
+    private static ByteBuffer bytes(@NotNull final String value) {
+        return ByteBuffer.wrap(value.getBytes(UTF_8));
+    }
+}
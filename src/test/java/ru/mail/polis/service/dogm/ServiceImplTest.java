@@ -0,0 +1,91 @@
+package ru.mail.polis.service.dogm;
+
+import one.nio.http.Response;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for merging of the replica answers by {@link ServiceImpl}.
+ */
+class ServiceImplTest {
+    @Test
+    void newestValueWins() {
+        final Response merged = ServiceImpl.mergeGets(Arrays.asList(
+                found("old", 1L),
+                found("new", 3L),
+                found("middle", 2L)));
+        assertEquals(200, merged.getStatus());
+        assertArrayEquals("new".getBytes(UTF_8), merged.getBody());
+    }
+
+    @Test
+    void newerRemovalWins() {
+        final Response merged = ServiceImpl.mergeGets(Arrays.asList(
+                found("old", 1L),
+                missing(2L)));
+        assertEquals(404, merged.getStatus());
+    }
+
+    @Test
+    void olderRemovalLoses() {
+        final Response merged = ServiceImpl.mergeGets(Arrays.asList(
+                missing(1L),
+                found("new", 2L)));
+        assertEquals(200, merged.getStatus());
+        assertArrayEquals("new".getBytes(UTF_8), merged.getBody());
+    }
+
+    @Test
+    void neverWrittenLosesToAnyWrite() {
+        final Response merged = ServiceImpl.mergeGets(Arrays.asList(
+                new Response(Response.NOT_FOUND, Response.EMPTY),
+                found("value", 1L)));
+        assertEquals(200, merged.getStatus());
+    }
+
+    @Test
+    void nothingIsNotFound() {
+        assertEquals(404, ServiceImpl.mergeGets(Collections.emptyList()).getStatus());
+        assertEquals(
+                404,
+                ServiceImpl.mergeGets(Collections.singletonList(new Response(Response.NOT_FOUND, Response.EMPTY)))
+                        .getStatus());
+    }
+
+    @Test
+    void parsesTimestamp() {
+        assertEquals(3L, Coordinator.timestampOf(found("value", 3L)));
+        assertEquals(-1L, Coordinator.timestampOf(new Response(Response.OK, Response.EMPTY)));
+
+        final Response malformed = new Response(Response.OK, Response.EMPTY);
+        malformed.addHeader(Coordinator.TIMESTAMP_HEADER + ": abc");
+        assertEquals(-1L, Coordinator.timestampOf(malformed));
+    }
+
+    @NotNull
+    private static Response found(
+            @NotNull final String value,
+            final long timestamp) {
+        return timestamped(new Response(Response.OK, value.getBytes(UTF_8)), timestamp);
+    }
+
+    @NotNull
+    private static Response missing(final long timestamp) {
+        return timestamped(new Response(Response.NOT_FOUND, Response.EMPTY), timestamp);
+    }
+
+    @NotNull
+    private static Response timestamped(
+            @NotNull final Response response,
+            final long timestamp) {
+        response.addHeader(Coordinator.TIMESTAMP_HEADER + ": " + timestamp);
+        return response;
+    }
+}
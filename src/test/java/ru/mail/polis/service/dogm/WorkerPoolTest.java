@@ -0,0 +1,134 @@
+package ru.mail.polis.service.dogm;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for shedding the load by {@link WorkerPool}.
+ */
+class WorkerPoolTest {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final Queue<String> events = new ConcurrentLinkedQueue<>();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private WorkerPool pool;
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        unblock.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void rejectsNewest() throws InterruptedException {
+        pool = pool(0, WorkerPool.Rejection.NEWEST);
+        block();
+        pool.execute(new Recording("first"));
+        pool.execute(new Recording("second"));
+
+        assertEquals("second rejected", events.poll());
+        drain();
+        assertEquals("first run", events.poll());
+        assertTrue(pool.stats().contains("rejected=1\n"));
+    }
+
+    @Test
+    void rejectsOldest() throws InterruptedException {
+        pool = pool(0, WorkerPool.Rejection.OLDEST);
+        block();
+        pool.execute(new Recording("first"));
+        pool.execute(new Recording("second"));
+
+        assertEquals("first rejected", events.poll());
+        drain();
+        assertEquals("second run", events.poll());
+        assertTrue(pool.stats().contains("rejected=1\n"));
+    }
+
+    @Test
+    void expiresQueuedTasks() throws InterruptedException {
+        pool = pool(1, WorkerPool.Rejection.NEWEST);
+        block();
+        pool.execute(new Recording("late"));
+        Thread.sleep(50);
+
+        drain();
+        assertEquals("late rejected", events.poll());
+        assertTrue(pool.stats().contains("expired=1\n"));
+    }
+
+    @Test
+    void throwsForPlainTasks() throws InterruptedException {
+        pool = pool(0, WorkerPool.Rejection.OLDEST);
+        block();
+        pool.execute(() -> events.add("plain run"));
+
+        assertThrows(RejectedExecutionException.class, () -> pool.execute(() -> events.add("rejected run")));
+        drain();
+        assertEquals("plain run", events.poll());
+        assertTrue(events.isEmpty());
+    }
+
+    @NotNull
+    private static WorkerPool pool(
+            final long deadlineMillis,
+            @NotNull final WorkerPool.Rejection rejection) {
+        return new WorkerPool(1, 1, deadlineMillis, rejection, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Occupies the only worker until {@link #drain()}.
+     */
+    private void block() throws InterruptedException {
+        pool.execute(() -> {
+            started.countDown();
+            try {
+                unblock.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Releases the worker and waits for the queued tasks.
+     */
+    private void drain() throws InterruptedException {
+        unblock.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private final class Recording implements WorkerPool.Task {
+        private final String name;
+
+        Recording(@NotNull final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            events.add(name + " run");
+        }
+
+        @Override
+        public void reject() {
+            events.add(name + " rejected");
+        }
+    }
+}